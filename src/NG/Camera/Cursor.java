@@ -34,8 +34,13 @@ public class Cursor implements MovingEntity {
 
     @Override
     public void draw(SGL gl) {
+        draw(gl, positionSupplier.get());
+    }
+
+    @Override
+    public void draw(SGL gl, State state) {
         gl.pushMatrix();
-        gl.translate(positionSupplier.get().position().toVector3f());
+        gl.translate(state.position().toVector3f());
         Toolbox.draw3DPointer(gl);
         gl.popMatrix();
     }
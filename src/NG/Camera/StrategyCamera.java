@@ -55,6 +55,11 @@ public class StrategyCamera implements Camera, MousePositionListener, KeyPressLi
         callbacks.addKeyReleaseListener(this);
     }
 
+    @Override
+    public Class<?>[] getInitDependencies() {
+        return new Class<?>[]{KeyMouseCallbacks.class};
+    }
+
     @Override
     public Vector3fc vectorToFocus() {
         return new Vector3f(eyeOffset).negate();
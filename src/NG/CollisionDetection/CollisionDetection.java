@@ -16,7 +16,6 @@ import org.joml.Vector3fc;
 
 import java.util.*;
 import java.util.concurrent.CopyOnWriteArrayList;
-import java.util.function.BiConsumer;
 import java.util.function.Consumer;
 import java.util.function.Function;
 import java.util.stream.IntStream;
@@ -38,6 +37,11 @@ public class CollisionDetection {
     private Collection<MovingEntity> dynamicEntities;
     private Collection<MovingEntity> newEntities;
     private float previousTime;
+    private PairList<CollisionEntity, CollisionEntity> candidatePairs = null;
+    // all entities indexed on their id, fixed until entities are added or removed
+    private CollisionEntity[] byId;
+    // for each axis, the keys of the pairs with overlapping intervals on that axis
+    private final List<Set<Long>> axisPairs = List.of(new HashSet<>(), new HashSet<>(), new HashSet<>());
 
     /**
      * @see #CollisionDetection(Collection)
@@ -67,6 +71,7 @@ public class CollisionDetection {
         zLowerSorted = new CollisionEntity[nOfEntities];
 
         populate(staticEntities, xLowerSorted, yLowerSorted, zLowerSorted);
+        assignIds();
 
         avgCollisions = new AveragingQueue(5);
     }
@@ -101,9 +106,30 @@ public class CollisionDetection {
     }
 
     /**
+     * executes {@link #prepareEntities(float)}, {@link #findCandidatePairs()} and {@link #resolveCollisions(float)}
      * @param gameTime the time of the next game-tick
      */
     public void processCollisions(float gameTime) {
+        prepareEntities(gameTime);
+        findCandidatePairs();
+        resolveCollisions(gameTime);
+    }
+
+    /**
+     * removes disposed entities, adds new entities, and updates the trajectories of all entities up to the given time.
+     * @param gameTime the time of the next game-tick
+     */
+    public void prepareEntities(float gameTime) {
+        mergeEntities();
+        updateTrajectories(gameTime, 0, 1);
+    }
+
+    /**
+     * removes disposed entities and adds new entities. Must be followed by {@link #updateTrajectories(float, int, int)}
+     * of every partition.
+     */
+    public void mergeEntities() {
+        boolean isChanged = false;
 
         /** -- clean and restore invariants -- */
 
@@ -116,31 +142,145 @@ public class CollisionDetection {
             }
         }
 
+        // entities that are disposed before being added
+        for (Entity e : newEntities) {
+            if (e.isDisposed()) {
+                removeEntities.add(e);
+            }
+        }
+
         if (!removeEntities.isEmpty()) {
             deleteEntities(removeEntities);
+            removeEntities.forEach(Entity::onRemoval);
             removeEntities.clear();
+            isChanged = true;
         }
 
         // add new entities
-        newEntities.removeIf(Entity::isDisposed);
         if (!newEntities.isEmpty()) {
             dynamicEntities.addAll(newEntities);
             mergeNewEntities(newEntities);
             newEntities.clear();
+            isChanged = true;
         }
 
-        // update representation
-        for (CollisionEntity entity : entityArray()) {
-            entity.update(gameTime);
+        if (isChanged) assignIds();
+    }
+
+    /** initializes the id values to correspond to the current entity array */
+    private void assignIds() {
+        byId = entityArray().clone();
+        for (int i = 0; i < byId.length; i++) {
+            byId[i].id = i;
         }
+    }
 
-        /** -- analyse the collisions -- */
+    /**
+     * updates the trajectories of one partition of the entities up to the given time. Different partitions may be
+     * updated in parallel.
+     * @param gameTime       the time of the next game-tick
+     * @param partition      the index of the partition, from 0 to nrOfPartitions
+     * @param nrOfPartitions the number of partitions of the entities
+     */
+    public void updateTrajectories(float gameTime, int partition, int nrOfPartitions) {
+        CollisionEntity[] entities = byId;
+        for (int i = partition; i < entities.length; i += nrOfPartitions) {
+            entities[i].update(gameTime);
+        }
+    }
 
+    /**
+     * the broad phase: collects the pairs of entities of which the trajectories of this tick overlap. Must be called
+     * after {@link #prepareEntities(float)}.
+     */
+    public void findCandidatePairs() {
         /* As a single collision may result in a previously not-intersecting pair to collide,
-         * we shouldn't re-use the getIntersectingPairs method nor reduce by non-collisions.
+         * we shouldn't re-use the candidate pairs nor reduce by non-collisions.
          * On the other hand, we may assume collisions of that magnitude appear seldom
          */
-        PairList<CollisionEntity, CollisionEntity> pairs = getIntersectingPairs();
+        for (int axis = 0; axis < 3; axis++) {
+            findAxisPairs(axis);
+        }
+        mergeCandidatePairs();
+    }
+
+    /**
+     * sorts the entities on one axis, and collects the pairs of entities of which the trajectories overlap on that
+     * axis. The axes may be processed in parallel, after all trajectories are updated.
+     * @param axis 0, 1 or 2 for the x, y or z axis respectively
+     */
+    public void findAxisPairs(int axis) {
+        Set<Long> pairs = axisPairs.get(axis);
+        pairs.clear();
+
+        switch (axis) {
+            case 0:
+                Toolbox.insertionSort(xLowerSorted, CollisionEntity::xLower);
+                checkOverlap(pairs, xLowerSorted, CollisionEntity::xLower, CollisionEntity::xUpper);
+                break;
+            case 1:
+                Toolbox.insertionSort(yLowerSorted, CollisionEntity::yLower);
+                checkOverlap(pairs, yLowerSorted, CollisionEntity::yLower, CollisionEntity::yUpper);
+                break;
+            case 2:
+                Toolbox.insertionSort(zLowerSorted, CollisionEntity::zLower);
+                checkOverlap(pairs, zLowerSorted, CollisionEntity::zLower, CollisionEntity::zUpper);
+                break;
+            default:
+                throw new IllegalArgumentException("Axis " + axis);
+        }
+    }
+
+    /**
+     * generates the list (possibly empty) of all pairs of objects that may have collided from the pairs found by
+     * {@link #findAxisPairs(int)} of all three axes. This can include (parts of) the ground, but not an object with
+     * itself. One pair does not occur the other way around.
+     */
+    public void mergeCandidatePairs() {
+        assert testInvariants();
+
+        Set<Long> yPairs = axisPairs.get(1);
+        Set<Long> zPairs = axisPairs.get(2);
+        PairList<CollisionEntity, CollisionEntity> allEntityPairs = new PairList<>();
+
+        for (long key : axisPairs.get(0)) {
+            if (yPairs.contains(key) && zPairs.contains(key)) {
+                allEntityPairs.add(byId[(int) (key >>> 32)], byId[(int) key]);
+            }
+        }
+
+        avgCollisions.add(allEntityPairs.size());
+        candidatePairs = allEntityPairs;
+    }
+
+    /**
+     * updates one partition of all entities to the given time. Different partitions may be updated in parallel.
+     * @param gameTime       the time of the next game-tick
+     * @param partition      the index of the partition, from 0 to nrOfPartitions
+     * @param nrOfPartitions the number of partitions of the entities
+     */
+    public void updateEntities(float gameTime, int partition, int nrOfPartitions) {
+        int i = 0;
+        for (Entity e : staticEntities) {
+            if (i++ % nrOfPartitions == partition) e.update(gameTime);
+        }
+        for (Entity e : dynamicEntities) {
+            if (i++ % nrOfPartitions == partition) e.update(gameTime);
+        }
+        for (Entity e : newEntities) {
+            if (i++ % nrOfPartitions == partition) e.update(gameTime);
+        }
+    }
+
+    /**
+     * the narrow phase: checks every pair found by {@link #findCandidatePairs()} for collisions, and lets the entities
+     * of each colliding pair collide.
+     * @param gameTime the time of the next game-tick
+     */
+    public void resolveCollisions(float gameTime) {
+        if (candidatePairs == null) findCandidatePairs();
+        PairList<CollisionEntity, CollisionEntity> pairs = candidatePairs;
+        candidatePairs = null;
 
         IntStream.range(0, pairs.size())
                 .parallel()
@@ -217,55 +357,18 @@ public class CollisionDetection {
     }
 
     /**
-     * generate a list (possibly empty) of all pairs of objects that may have collided. This can include (parts of) the
-     * ground, but not an object with itself. One pair does not occur the other way around.
-     * @return a collection of pairs of objects that are close to each other
-     */
-    private PairList<CollisionEntity, CollisionEntity> getIntersectingPairs() {
-        Toolbox.insertionSort(xLowerSorted, CollisionEntity::xLower);
-        Toolbox.insertionSort(yLowerSorted, CollisionEntity::yLower);
-        Toolbox.insertionSort(zLowerSorted, CollisionEntity::zLower);
-
-        assert testInvariants();
-
-        CollisionEntity[] entityArray = entityArray();
-        int nrOfEntities = entityArray.length;
-
-        // initialize id values to correspond to the array
-        for (int i = 0; i < nrOfEntities; i++) {
-            entityArray[i].id = i;
-        }
-
-        AdjacencyMatrix adjacencies = new AdjacencyMatrix(nrOfEntities, 3);
-
-        checkOverlap(adjacencies, xLowerSorted, CollisionEntity::xLower, CollisionEntity::xUpper);
-        checkOverlap(adjacencies, yLowerSorted, CollisionEntity::yLower, CollisionEntity::yUpper);
-        checkOverlap(adjacencies, zLowerSorted, CollisionEntity::zLower, CollisionEntity::zUpper);
-
-        int nrOfElts = adjacencies.nrOfFoundElements();
-
-        PairList<CollisionEntity, CollisionEntity> allEntityPairs = new PairList<>(nrOfElts);
-        adjacencies.forEach((i, j) -> allEntityPairs.add(
-                entityArray[i], entityArray[j]
-        ));
-
-        avgCollisions.add(nrOfElts);
-        return allEntityPairs;
-    }
-
-    /**
-     * iterating over the sorted array, increase the value of all pairs that have coinciding intervals
-     * @param adjacencyMatrix the matrix where the pairs are marked using entity id's
-     * @param sortedArray     an array sorted increasingly on the lower mapping
-     * @param lower           a function that maps to the lower value of the interval of the entity
-     * @param upper           a function that maps an entity to its upper interval
+     * iterating over the sorted array, collects all pairs that have coinciding intervals
+     * @param pairs       the set where the pairs are added, as keys of the entity id's
+     * @param sortedArray an array sorted increasingly on the lower mapping
+     * @param lower       a function that maps to the lower value of the interval of the entity
+     * @param upper       a function that maps an entity to its upper interval
      */
     protected void checkOverlap(
-            AdjacencyMatrix adjacencyMatrix, CollisionEntity[] sortedArray, Function<CollisionEntity, Float> lower,
+            Set<Long> pairs, CollisionEntity[] sortedArray, Function<CollisionEntity, Float> lower,
             Function<CollisionEntity, Float> upper
     ) {
         // INVARIANT:
-        // all items i where i.lower < source.lower, are already added to the matrix
+        // all items i where i.lower < source.lower, are already added to the set
 
         int nOfItems = sortedArray.length;
         for (int i = 0; i < (nOfItems - 1); i++) {
@@ -278,7 +381,7 @@ public class CollisionDetection {
             // while the lowerbound of target is less than the upperbound of our subject
             while (lower.apply(target) <= upper.apply(subject)) {
                 if (subject.entity.canCollideWith(target.entity) && target.entity.canCollideWith(subject.entity)) {
-                    adjacencyMatrix.add(target.id, subject.id);
+                    pairs.add(pairKey(target.id, subject.id));
                 }
 
                 if (j == nOfItems) break;
@@ -287,7 +390,12 @@ public class CollisionDetection {
         }
     }
 
-    public void addEntities(Collection<MovingEntity> entities) {
+    /** @return a key of the pair of id's that is equal for both orders of the id's */
+    private static long pairKey(int i, int j) {
+        return (i > j) ? (((long) i << 32) | j) : (((long) j << 32) | i);
+    }
+
+    public void addEntities(Collection<? extends MovingEntity> entities) {
         newEntities.addAll(entities);
     }
 
@@ -360,6 +468,7 @@ public class CollisionDetection {
         zLowerSorted = deleteAll(targets, zLowerSorted);
 
         dynamicEntities.removeAll(targets);
+        newEntities.removeAll(targets);
     }
 
     private CollisionEntity[] deleteAll(Collection<Entity> targets, CollisionEntity[] array) {
@@ -418,15 +527,17 @@ public class CollisionDetection {
         for (Entity e : staticEntities) {
             e.dispose();
         }
-        staticEntities.clear();
+        staticEntities = Collections.emptyList();
 
         for (Entity e : dynamicEntities) {
             e.dispose();
+            e.onRemoval();
         }
         dynamicEntities.clear();
 
         for (Entity e : newEntities) {
             e.dispose();
+            e.onRemoval();
         }
         newEntities.clear();
     }
@@ -444,6 +555,11 @@ public class CollisionDetection {
         public CollisionEntity(Entity source) {
             this.entity = source;
             prevPoints = entity.getShapePoints();
+            nextPoints = entity.getShapePoints();
+
+            Vector3fxc position = entity.getCurrentState().position();
+            nextBoundingBox = entity.hitbox().move(position.toVector3f());
+            hitbox = nextBoundingBox;
         }
 
         public void update(float gameTime) {
@@ -490,65 +606,6 @@ public class CollisionDetection {
         }
     }
 
-    /**
-     * tracks how often pairs of integers are added, and allows querying whether a given pair has been added at least a
-     * given number of times.
-     */
-    private static class AdjacencyMatrix {
-        // this map is indexed using the entity id values, with i > j
-        // if (adjacencyMatrix[i][j] == n) then entityArray[i] and entityArray[j] have n coordinates with coinciding intervals
-        Map<Integer, Map<Integer, Integer>> relations;
-        Map<Integer, Set<Integer>> found;
-        private int depth;
-
-        /**
-         * @param nrOfElements maximum value that can be added
-         * @param depth        how many times a number must be added to trigger {@link #has(int, int)}. For 3-coordinate
-         *                     matching, use 3
-         */
-        public AdjacencyMatrix(int nrOfElements, int depth) {
-            relations = new HashMap<>(nrOfElements);
-            found = new HashMap<>();
-            this.depth = depth;
-        }
-
-        public void add(int i, int j) {
-            if (j > i) {
-                int t = i;
-                i = j;
-                j = t;
-            }
-
-            Map<Integer, Integer> firstSide = relations.computeIfAbsent(i, HashMap::new);
-            int newValue = firstSide.getOrDefault(j, 0) + 1;
-            if (newValue == depth) {
-                found.computeIfAbsent(i, HashSet::new).add(j);
-            }
-            firstSide.put(j, newValue);
-        }
-
-        public boolean has(int i, int j) {
-            return found.containsKey(i) && found.get(i).contains(j);
-        }
-
-        public void forEach(BiConsumer<Integer, Integer> action) {
-            for (Integer i : found.keySet()) {
-                for (Integer j : found.get(i)) {
-                    action.accept(i, j);
-                }
-            }
-        }
-
-        public int nrOfFoundElements() {
-            int count = 0;
-            for (Set<Integer> integers : found.values()) {
-                count += integers.size();
-            }
-            return count;
-        }
-    }
-
-
     /**
      * tests whether the invariants holds. Throws an error if any of the arrays is not correctly sorted or any other
      * assumption no longer holds
@@ -1,6 +1,7 @@
 package NG.CollisionDetection;
 
 import NG.Core.GameAspect;
+import NG.Core.TickGraph;
 import NG.DataStructures.Generic.Pair;
 import NG.Entities.Entity;
 import NG.Entities.MovingEntity;
@@ -17,12 +18,28 @@ import java.util.Collection;
  * @author Geert van Ieperen. Created on 21-9-2018.
  */
 public interface GameState extends GameAspect, Storable, MouseToolListener {
+    /** name of the stage added by the default {@link #addUpdateStages(TickGraph, String...)} */
+    String UPDATE_STAGE = "state update";
+
     /**
      * update the physics and entities of the state
      * @param gameTime
      */
     void update(float gameTime);
 
+    /**
+     * adds stages to the given graph that together perform {@link #update(float)} to the time of the tick. Stages that
+     * do not depend on each other may be executed in parallel on the pool of the graph. By default, this adds the single
+     * stage {@link #UPDATE_STAGE}, which is executed on the thread that runs the graph.
+     * @param graph        the graph of the loop that updates this state
+     * @param dependencies the stages that must be finished before this state is updated
+     * @return the name of the last stage, which finishes the update
+     */
+    default String addUpdateStages(TickGraph graph, String... dependencies) {
+        graph.addStage(UPDATE_STAGE, true, this::update, dependencies);
+        return UPDATE_STAGE;
+    }
+
     /**
      * draws the objects on the screen, according to the state of a {@link NG.Core.GameTimer} object.
      * @param gl the gl object to draw with
@@ -45,6 +62,15 @@ public interface GameState extends GameAspect, Storable, MouseToolListener {
      */
     void addEntity(MovingEntity entity);
 
+    /**
+     * adds all given entities to the game in a thread-safe way.
+     * @param entities the new entities, with only their constructor called
+     * @see #addEntity(MovingEntity)
+     */
+    default void addEntities(Collection<? extends MovingEntity> entities) {
+        entities.forEach(this::addEntity);
+    }
+
     /**
      * removes the given entity from the gameState. This action does not have to be executed immediately.
      * @param entity an entity to be removed
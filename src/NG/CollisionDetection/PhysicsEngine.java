@@ -1,6 +1,9 @@
 package NG.CollisionDetection;
 
+import NG.Core.FramePipeline;
 import NG.Core.Game;
+import NG.Core.GameTimer;
+import NG.Core.TickGraph;
 import NG.DataStructures.Generic.Pair;
 import NG.Entities.Entity;
 import NG.Entities.MovingEntity;
@@ -8,6 +11,7 @@ import NG.InputHandling.ClickShader;
 import NG.InputHandling.MouseTools.MouseTool;
 import NG.Rendering.MatrixStack.SGL;
 import NG.Storable;
+import NG.Tools.TimeObserver;
 import NG.Tools.Vectors;
 import org.joml.Vector3f;
 import org.joml.Vector3fc;
@@ -23,8 +27,22 @@ import java.util.List;
  * @author Geert van Ieperen created on 10-2-2019.
  */
 public class PhysicsEngine implements GameState {
+    /** stage that removes disposed entities and adds new entities */
+    public static final String PHYSICS_STAGE = "physics";
+    /** prefix of the stages that each update the trajectories of one partition of the entities */
+    public static final String TRAJECTORY_STAGE = "trajectory";
+    /** stage that collects the pairs of entities that may collide, after one stage per axis with this prefix */
+    public static final String BROAD_PHASE_STAGE = "broad phase";
+    /** stage that resolves the collisions of the candidate pairs */
+    public static final String NARROW_PHASE_STAGE = "narrow phase";
+    /** stage that is finished when all entities are updated to the end of the tick, by one stage per partition */
+    public static final String ENTITY_STAGE = "entity update";
+    private static final String[] AXIS_NAMES = {"x", "y", "z"};
+
     private final CollisionDetection entityList;
     private Game game;
+    private FramePipeline pipeline = null;
+    private TimeObserver timeObserver = null;
 
     public PhysicsEngine() {
         entityList = new CollisionDetection();
@@ -33,12 +51,78 @@ public class PhysicsEngine implements GameState {
     @Override
     public void init(Game game) throws Exception {
         this.game = game;
+        if (game.has(FramePipeline.class)) pipeline = game.get(FramePipeline.class);
+    }
+
+    @Override
+    public boolean canInitConcurrently() {
+        return true;
     }
 
     @Override
     public void update(float gameTime) {
+        if (timeObserver != null) timeObserver.startTiming("Collision detection");
         entityList.processCollisions(gameTime);
+
+        if (timeObserver != null) timeObserver.startTiming("Entity update");
         entityList.forEach(entity -> entity.update(gameTime));
+
+        if (timeObserver != null) timeObserver.endTiming("Entity update");
+    }
+
+    @Override
+    public String addUpdateStages(TickGraph graph, String... dependencies) {
+        int nrOfPartitions = Runtime.getRuntime().availableProcessors();
+
+        graph.addStage(PHYSICS_STAGE, false, t -> {
+            if (timeObserver != null) timeObserver.startTiming("Collision detection");
+            entityList.mergeEntities();
+        }, dependencies);
+
+        String[] trajectoryStages = new String[nrOfPartitions];
+        for (int i = 0; i < nrOfPartitions; i++) {
+            int partition = i;
+            trajectoryStages[i] = TRAJECTORY_STAGE + " " + i;
+            graph.addStage(trajectoryStages[i], false,
+                    t -> entityList.updateTrajectories(t, partition, nrOfPartitions), PHYSICS_STAGE
+            );
+        }
+
+        String[] axisStages = new String[AXIS_NAMES.length];
+        for (int i = 0; i < AXIS_NAMES.length; i++) {
+            int axis = i;
+            axisStages[i] = BROAD_PHASE_STAGE + " " + AXIS_NAMES[i];
+            graph.addStage(axisStages[i], false, t -> entityList.findAxisPairs(axis), trajectoryStages);
+        }
+
+        graph.addStage(BROAD_PHASE_STAGE, false, t -> entityList.mergeCandidatePairs(), axisStages);
+        graph.addStage(NARROW_PHASE_STAGE, false, t -> {
+            entityList.resolveCollisions(t);
+            if (timeObserver != null) timeObserver.startTiming("Entity update");
+        }, BROAD_PHASE_STAGE);
+
+        String[] entityStages = new String[nrOfPartitions];
+        for (int i = 0; i < nrOfPartitions; i++) {
+            int partition = i;
+            entityStages[i] = ENTITY_STAGE + " " + i;
+            graph.addStage(entityStages[i], false,
+                    t -> entityList.updateEntities(t, partition, nrOfPartitions), NARROW_PHASE_STAGE
+            );
+        }
+
+        graph.addStage(ENTITY_STAGE, false, t -> {
+            if (timeObserver != null) timeObserver.endTiming("Entity update");
+        }, entityStages);
+
+        return ENTITY_STAGE;
+    }
+
+    /**
+     * lets this engine report the time spent in its phases to the given observer
+     * @param observer the observer to report to, or null to stop reporting
+     */
+    public void setTimeObserver(TimeObserver observer) {
+        this.timeObserver = observer;
     }
 
     @Override
@@ -47,9 +131,25 @@ public class PhysicsEngine implements GameState {
         entityList.addEntity(entity);
     }
 
+    @Override
+    public void addEntities(Collection<? extends MovingEntity> entities) {
+        entityList.addEntities(entities);
+    }
+
     @Override
     public void draw(SGL gl) {
-        entityList.forEach(e -> e.draw(gl));
+        FramePipeline.Frame frame = (pipeline == null) ? null : pipeline.current();
+
+        if (frame == null) {
+            entityList.forEach(e -> e.draw(gl));
+            return;
+        }
+
+        // draw the published states, without touching the live simulation
+        float renderTime = game.get(GameTimer.class).getRendertime();
+        for (int i = 0; i < frame.size(); i++) {
+            frame.entity(i).draw(gl, pipeline.stateAt(i, renderTime));
+        }
     }
 
     @Override
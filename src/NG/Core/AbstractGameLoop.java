@@ -2,7 +2,6 @@ package NG.Core;
 
 import NG.DataStructures.Generic.AveragingQueue;
 import NG.Tools.Logger;
-import NG.Tools.Timer;
 
 import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.CountDownLatch;
@@ -15,7 +14,9 @@ import java.util.function.Supplier;
  * @author Geert van Ieperen recreated on 29-10-2019
  */
 public abstract class AbstractGameLoop extends Thread {
-    private float targetDeltaMillis;
+    private final TickScheduler scheduler;
+    private volatile int targetTps;
+    private volatile TickGovernor governor = null;
     private CountDownLatch pauseBlock = new CountDownLatch(0);
     private boolean shouldStop = false;
     private boolean isPaused = true;
@@ -26,6 +27,7 @@ public abstract class AbstractGameLoop extends Thread {
     private AveragingQueue avgPoss;
     private final Supplier<String> tickCounter;
     private final Supplier<String> possessionCounter;
+    private final Supplier<String> jitterCounter;
 
     /**
      * creates a new, paused gameloop
@@ -35,13 +37,18 @@ public abstract class AbstractGameLoop extends Thread {
     public AbstractGameLoop(String name, int targetTps) {
         super(name);
         if (targetTps == 0) pauseBlock = new CountDownLatch(1);
-        this.targetDeltaMillis = 1000f / targetTps;
+        this.targetTps = targetTps;
+        this.scheduler = new TickScheduler(targetTps);
 
         avgTPS = new AveragingQueue(targetTps / 2);
         avgPoss = new AveragingQueue(targetTps / 10);
 
         tickCounter = () -> String.format("%s TPS: %1.01f", name, avgTPS.average());
         possessionCounter = () -> String.format("%s POSS: %3d%%", name, (int) (100 * avgPoss.average()));
+        jitterCounter = () -> String.format(
+                "%s jitter: %1.02f ms (max %1.02f ms)", name,
+                scheduler.averageJitterMillis(), scheduler.maxJitterMillis()
+        );
     }
 
     /**
@@ -71,16 +78,15 @@ public abstract class AbstractGameLoop extends Thread {
 
         Logger.printOnline(tickCounter);
         Logger.printOnline(possessionCounter);
+        Logger.printOnline(jitterCounter);
 
         try {
             pauseBlock.await();
-            Timer loopTimer = new Timer();
+            scheduler.restart();
+            long loopStart = System.nanoTime();
             isPaused = false;
 
             while (!shouldStop || Thread.interrupted()) {
-                // start measuring how long a gameloop takes
-                loopTimer.updateLoopTime();
-
                 // do stuff
                 update(deltaTime);
                 if (Thread.interrupted()) break;
@@ -89,26 +95,39 @@ public abstract class AbstractGameLoop extends Thread {
                 runPostLoopActions();
                 if (Thread.interrupted()) break;
 
-                // number of milliseconds remaining in this loop
-                float remainingTime = targetDeltaMillis - loopTimer.getMillisSinceLastUpdate();
-
-                // sleep at least 0 milliseconds
-                long correctedTime = (long) Math.max(remainingTime, 0);
-                Thread.sleep(correctedTime);
+                // number of nanoseconds remaining in this loop
+                long remainingNanos = scheduler.nanosRemaining();
+                scheduler.awaitNextTick();
 
                 // store the duration and set this as length of next update
-                loopTimer.updateLoopTime();
-                deltaTime = loopTimer.getElapsedSeconds();
+                long now = System.nanoTime();
+                long elapsedNanos = Math.max(now - loopStart, 1);
+                loopStart = now;
+                deltaTime = elapsedNanos * 1E-9f;
 
                 // update Ticks per Second
-                float realTPS = 1000f / loopTimer.getElapsedMillis();
-                avgTPS.add(realTPS);
-                avgPoss.add((targetDeltaMillis - remainingTime) / targetDeltaMillis);
+                avgTPS.add(1E9f / elapsedNanos);
+                long periodNanos = scheduler.getPeriodNanos();
+                if (periodNanos > 0) {
+                    float possession = (float) (periodNanos - remainingNanos) / periodNanos;
+                    avgPoss.add(possession);
+
+                    TickGovernor gov = governor;
+                    if (gov != null) gov.onTick(this, possession);
+                }
 
                 // wait if the game is paused
-                isPaused = true;
-                pauseBlock.await();
-                isPaused = false;
+                if (pauseBlock.getCount() > 0) {
+                    isPaused = true;
+                    pauseBlock.await();
+                    isPaused = false;
+
+                    // the pause is not part of the schedule, nor of the next tick
+                    scheduler.restart();
+                    loopStart = System.nanoTime();
+                    TickGovernor gov = governor;
+                    if (gov != null) gov.reset();
+                }
             }
 
         } catch (Exception ex) {
@@ -122,6 +141,7 @@ public abstract class AbstractGameLoop extends Thread {
         } finally {
             Logger.removeOnlinePrint(tickCounter);
             Logger.removeOnlinePrint(possessionCounter);
+            Logger.removeOnlinePrint(jitterCounter);
             postLoopActions.clear();
             cleanup();
         }
@@ -130,7 +150,8 @@ public abstract class AbstractGameLoop extends Thread {
         Logger.DEBUG.print(this + " is stopped");
     }
 
-    private void runPostLoopActions() {
+    /** executes all actions that were deferred to this loop */
+    void runPostLoopActions() {
         while (!postLoopActions.isEmpty() && !Thread.interrupted()) {
             try {
                 postLoopActions.remove().run();
@@ -177,11 +198,45 @@ public abstract class AbstractGameLoop extends Thread {
         return isPaused && (pauseBlock.getCount() > 0);
     }
 
+    /**
+     * sets the target tick rate of this loop. A {@link TickGovernor} may lower the actual rate, but never raises it above
+     * this target.
+     */
     public void setTPS(int TPS) {
-        this.targetDeltaMillis = 1000f / TPS;
+        targetTps = TPS;
+        scheduler.setTPS(TPS);
+    }
+
+    /** sets the actual tick rate, without changing the target */
+    void adaptTPS(int TPS) {
+        scheduler.setTPS(TPS);
+    }
+
+    /**
+     * @return the tick rate set by the constructor or {@link #setTPS(int)}
+     */
+    public int getTargetTPS() {
+        return targetTps;
     }
 
     public int getTPS() {
-        return (int) (1000f / targetDeltaMillis);
+        long periodNanos = scheduler.getPeriodNanos();
+        return periodNanos > 0 ? (int) (1_000_000_000L / periodNanos) : 0;
+    }
+
+    /**
+     * sets a governor that adapts the tick rate of this loop to its load
+     * @param governor the new governor, or null to keep the tick rate fixed
+     */
+    public void setGovernor(TickGovernor governor) {
+        this.governor = governor;
+    }
+
+    /**
+     * @return the scheduler that times the ticks of this loop, which can be used to tune its precision and read its
+     * jitter statistics
+     */
+    public TickScheduler getScheduler() {
+        return scheduler;
     }
 }
@@ -0,0 +1,125 @@
+package NG.Core;
+
+import NG.Rendering.RenderLoop;
+import NG.Tools.Logger;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Initializes the {@link GameAspect} elements of a game in order of their declared dependencies. Aspects that {@link
+ * GameAspect#canInitConcurrently() allow it} are initialized on a worker pool, the others on the calling thread. While
+ * the calling thread waits, it executes the actions deferred to the render thread, such that concurrent aspects can use
+ * {@link Game#computeOnRenderThread}. A game without a render loop executes these actions on the thread that calls them.
+ * <p>
+ * After initialisation, a timeline of all aspects is logged, marking the critical path.
+ */
+final class AspectInitializer {
+    private final Game game;
+    private final List<GameAspect> aspects;
+    private final long[] startNanos;
+    private final long[] endNanos;
+    private final String[] threadNames;
+    private final List<List<Integer>> dependencies = new ArrayList<>();
+
+    private AspectInitializer(Game game) {
+        this.game = game;
+        this.aspects = game.getAll(GameAspect.class);
+
+        int n = aspects.size();
+        this.startNanos = new long[n];
+        this.endNanos = new long[n];
+        this.threadNames = new String[n];
+    }
+
+    /**
+     * initializes all aspects of the given game
+     * @see Game#init()
+     */
+    static void initAll(Game game) throws Exception {
+        AspectInitializer initializer = new AspectInitializer(game);
+        long start = System.nanoTime();
+
+        initializer.run();
+
+        Logger.INFO.print(initializer.timeline(start));
+    }
+
+    private void run() throws Exception {
+        TickGraph graph = new TickGraph();
+        int n = aspects.size();
+
+        for (int i = 0; i < n; i++) {
+            List<Integer> deps = new ArrayList<>();
+            for (Class<?> type : aspects.get(i).getInitDependencies()) {
+                for (int j = 0; j < n; j++) {
+                    if (j != i && type.isInstance(aspects.get(j)) && !deps.contains(j)) deps.add(j);
+                }
+            }
+            dependencies.add(deps);
+        }
+
+        for (int i = 0; i < n; i++) {
+            GameAspect aspect = aspects.get(i);
+            List<Integer> deps = dependencies.get(i);
+
+            String[] depNames = new String[deps.size()];
+            for (int k = 0; k < depNames.length; k++) {
+                depNames[k] = nameOf(deps.get(k));
+            }
+
+            int index = i;
+            graph.addStage(nameOf(i), !aspect.canInitConcurrently(), t -> {
+                threadNames[index] = Thread.currentThread().getName();
+                startNanos[index] = System.nanoTime();
+                aspect.init(game);
+                endNanos[index] = System.nanoTime();
+            }, depNames);
+        }
+
+        AbstractGameLoop renderLoop = game.has(RenderLoop.class) ? game.get(RenderLoop.class) : null;
+        graph.run(0, renderLoop == null ? null : renderLoop::runPostLoopActions);
+    }
+
+    private String nameOf(int index) {
+        return index + ":" + aspects.get(index).getClass().getSimpleName();
+    }
+
+    /**
+     * @return a table of the start and duration of every aspect, where the aspects on the critical path are marked
+     */
+    private String timeline(long start) {
+        int n = aspects.size();
+        if (n == 0) return "No aspects to initialize";
+
+        // the critical path ends at the last aspect to finish, and follows the dependency that finished last
+        boolean[] isCritical = new boolean[n];
+        int last = 0;
+        for (int i = 1; i < n; i++) {
+            if (endNanos[i] > endNanos[last]) last = i;
+        }
+
+        int current = last;
+        while (current >= 0) {
+            isCritical[current] = true;
+            int next = -1;
+            for (int dep : dependencies.get(current)) {
+                if (next < 0 || endNanos[dep] > endNanos[next]) next = dep;
+            }
+            current = next;
+        }
+
+        StringBuilder table = new StringBuilder();
+        table.append(String.format("Initialized %d aspects in %1.01f ms:", n, (endNanos[last] - start) * 1E-6f));
+
+        for (int i = 0; i < n; i++) {
+            table.append(String.format(
+                    "\n%s %-30s at %7.01f ms, %7.01f ms on %s",
+                    isCritical[i] ? "*" : " ", aspects.get(i).getClass().getSimpleName(),
+                    (startNanos[i] - start) * 1E-6f, (endNanos[i] - startNanos[i]) * 1E-6f, threadNames[i]
+            ));
+        }
+
+        return table.toString();
+    }
+}
@@ -0,0 +1,380 @@
+package NG.Core;
+
+import NG.DataStructures.Generic.AveragingQueue;
+import NG.Entities.Entity;
+import NG.Entities.MutableState;
+import NG.Entities.State;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Decouples the simulation from rendering. After every tick, the simulation publishes a {@link Frame} holding a copy of
+ * the state of all entities. The render loop draws from the most recent published frames, while the simulation already
+ * computes the next tick. Because published frames are never modified, the two loops share no mutable entity state.
+ * <p>
+ * At most {@code depth} frames are queued. If the renderer does not keep up, the oldest queued frame is dropped, such
+ * that the simulation never waits for the renderer.
+ * <p>
+ * Every entity gets an id when it is first published, which it keeps in every frame published directly after. States
+ * are interpolated between frames on this id rather than on the entity object, such that a recycled entity is never
+ * interpolated with its previous use. Frames that are no longer used by the renderer are retired, and reused with their
+ * state buffers by later ticks. Entities removed from the game may still be drawn from frames that are not yet retired;
+ * see {@link #isRetired(long)}.
+ * <p>
+ * The pipeline measures three latencies: from the start of a tick to its publication, from publication to the start of
+ * the frame that renders it, and from the start of a tick until its frame is presented.
+ */
+public class FramePipeline {
+    private final BlockingQueue<Frame> published;
+    private final Queue<Frame> retired = new ConcurrentLinkedQueue<>();
+    private volatile int nrOfDropped = 0;
+
+    // only accessed by the simulation thread
+    private final ArrayDeque<Frame> live = new ArrayDeque<>(); // published and not yet reused, in order of publishing
+    private final ArrayDeque<Frame> free = new ArrayDeque<>();
+    private Map<Entity, Integer> entityIds = new IdentityHashMap<>(); // of the last published frame
+    private Map<Entity, Integer> previousEntityIds = new IdentityHashMap<>();
+    private int nextId = 0;
+    private long nextSequence = 0;
+    private Frame latest = null; // the last published frame
+
+    /** sequence number of the oldest frame that is not retired, or of the next frame if all are retired */
+    private volatile long oldestLive = 0;
+
+    // only accessed by the render thread
+    private Frame previous = null;
+    private Frame current = null;
+    private boolean currentIsNew = false;
+
+    private final AveragingQueue avgSimulation;
+    private final AveragingQueue avgQueued;
+    private final AveragingQueue avgTotal;
+
+    /**
+     * @param depth the maximum number of published frames that are waiting for the renderer
+     */
+    public FramePipeline(int depth) {
+        this.published = new ArrayBlockingQueue<>(Math.max(depth, 1));
+        this.avgSimulation = new AveragingQueue(30);
+        this.avgQueued = new AveragingQueue(30);
+        this.avgTotal = new AveragingQueue(30);
+    }
+
+    /**
+     * publishes the state of the given entities. Should be called by the simulation after every tick.
+     * @param gameTime       the game time of the tick
+     * @param tickStartNanos the {@link System#nanoTime()} at the start of the tick
+     * @param entities       the entities of the game state
+     */
+    public void publish(float gameTime, long tickStartNanos, Collection<Entity> entities) {
+        reclaimRetired();
+
+        Map<Entity, Integer> swap = previousEntityIds;
+        previousEntityIds = entityIds;
+        entityIds = swap;
+        entityIds.clear();
+
+        Frame frame = free.poll();
+        if (frame == null) frame = new Frame();
+        frame.fill(this, nextSequence++, gameTime, tickStartNanos, entities);
+        avgSimulation.add(frame.publishNanos - tickStartNanos);
+
+        live.addLast(frame);
+        latest = frame;
+        oldestLive = live.peekFirst().sequence;
+
+        while (!published.offer(frame)) {
+            Frame dropped = published.poll();
+            if (dropped != null) {
+                nrOfDropped++;
+                dropped.isRetired = true;
+            }
+        }
+    }
+
+    /** @return the id of the given entity in the previous frame, or a new id if it was not in the previous frame */
+    private int assignId(Entity entity) {
+        Integer id = previousEntityIds.get(entity);
+        if (id == null) id = nextId++;
+        entityIds.put(entity, id);
+        return id;
+    }
+
+    /** moves all frames that are retired, and of which all older frames are retired, to the free list */
+    private void reclaimRetired() {
+        Frame frame;
+        while ((frame = retired.poll()) != null) {
+            frame.isRetired = true;
+        }
+
+        while (!live.isEmpty() && live.peekFirst().isRetired) {
+            free.add(live.pollFirst());
+        }
+        oldestLive = live.isEmpty() ? nextSequence : live.peekFirst().sequence;
+    }
+
+    /**
+     * starts rendering a frame, selecting the most recently published frame. Should be called by the render loop once
+     * per frame. The frames returned by earlier calls may be reused by the simulation afterwards.
+     * @return the frame to render, or null if no frame has been published yet
+     */
+    public Frame beginFrame() {
+        Frame next = null;
+        Frame polled;
+        while ((polled = published.poll()) != null) {
+            if (next != null) retired.add(next);
+            next = polled;
+        }
+
+        if (next != null) {
+            avgQueued.add(System.nanoTime() - next.publishNanos);
+            if (previous != null) retired.add(previous);
+            previous = current;
+            current = next;
+            currentIsNew = true;
+        }
+
+        return current;
+    }
+
+    /**
+     * marks the end of the frame started by {@link #beginFrame()}, after it has been presented.
+     */
+    public void endFrame() {
+        if (currentIsNew) {
+            avgTotal.add(System.nanoTime() - current.tickStartNanos);
+            currentIsNew = false;
+        }
+    }
+
+    /**
+     * @return the frame selected by the last call to {@link #beginFrame()}, or null if there is none
+     */
+    public Frame current() {
+        return current;
+    }
+
+    /**
+     * returns the state of the given entity of the current frame on the given time, interpolated between the previous
+     * and the current frame. May only be called by the render thread.
+     * @param index      the index of an entity in the current frame
+     * @param renderTime the time to render
+     * @return the interpolated state of the entity
+     */
+    public State stateAt(int index, float renderTime) {
+        State state = current.states[index];
+        if (previous == null || renderTime >= current.gameTime) return state;
+
+        State prevState = previous.stateOf(current.ids[index]);
+        if (prevState == null) return state;
+
+        return prevState.interpolate(state, renderTime);
+    }
+
+    /**
+     * @return the sequence number of the most recently published frame, or -1 if none has been published. Should be
+     * called by the simulation.
+     */
+    public long getLastPublished() {
+        return nextSequence - 1;
+    }
+
+    /**
+     * @return the most recently published frame, or null if none has been published. Should be called by the
+     * simulation, which includes the stages of its ticks. The frame is not modified until the next call to {@link
+     * #publish(float, long, Collection)}.
+     */
+    public Frame getLatest() {
+        return latest;
+    }
+
+    /**
+     * @param sequence the sequence number of a published frame
+     * @return true if neither the given frame nor any frame before it is still used by the renderer. An entity that was
+     * removed from the game after the given frame was published is then no longer referenced by this pipeline.
+     */
+    public boolean isRetired(long sequence) {
+        return sequence < oldestLive;
+    }
+
+    /**
+     * @return the number of published frames that were never rendered
+     */
+    public int getNrOfDropped() {
+        return nrOfDropped;
+    }
+
+    /**
+     * @return average time from the start of a tick until it is published, in milliseconds
+     */
+    public float simulationLatencyMillis() {
+        return avgSimulation.average() * 1E-6f;
+    }
+
+    /**
+     * @return average time from publishing a tick until a frame starts rendering it, in milliseconds
+     */
+    public float queueLatencyMillis() {
+        return avgQueued.average() * 1E-6f;
+    }
+
+    /**
+     * @return average time from the start of a tick until the frame rendering it is presented, in milliseconds
+     */
+    public float totalLatencyMillis() {
+        return avgTotal.average() * 1E-6f;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(
+                "Pipeline latency: simulation %1.02f ms, queued %1.02f ms, total %1.02f ms (%d dropped)",
+                simulationLatencyMillis(), queueLatencyMillis(), totalLatencyMillis(), nrOfDropped
+        );
+    }
+
+    /**
+     * a copy of the entity states of one tick. A frame is not modified while the renderer may use it, which is until
+     * the second call to {@link #beginFrame()} that selects a newer frame.
+     */
+    public static class Frame {
+        float gameTime;
+        long sequence;
+        long tickStartNanos;
+        long publishNanos;
+        boolean isRetired; // only accessed by the simulation thread
+
+        private int size = 0;
+        private Entity[] entities = new Entity[16];
+        private int[] ids = new int[16];
+        private MutableState[] states = new MutableState[16];
+
+        // hash table from id to index + 1, built on demand by the render thread
+        private int[] indexOfId = new int[0];
+        private boolean hasIndex = false;
+
+        private Frame() {
+        }
+
+        private void fill(
+                FramePipeline pipeline, long sequence, float gameTime, long tickStartNanos, Collection<Entity> source
+        ) {
+            this.sequence = sequence;
+            this.gameTime = gameTime;
+            this.tickStartNanos = tickStartNanos;
+            this.isRetired = false;
+            this.hasIndex = false;
+
+            int oldSize = size;
+            int i = 0;
+            for (Entity entity : source) {
+                if (i == entities.length) {
+                    int capacity = entities.length * 2;
+                    entities = Arrays.copyOf(entities, capacity);
+                    ids = Arrays.copyOf(ids, capacity);
+                    states = Arrays.copyOf(states, capacity);
+                }
+
+                State state = entity.getCurrentState();
+                if (states[i] == null) {
+                    states[i] = new MutableState(state);
+                } else {
+                    states[i].set(state);
+                }
+
+                entities[i] = entity;
+                ids[i] = pipeline.assignId(entity);
+                i++;
+            }
+
+            if (i < oldSize) Arrays.fill(entities, i, oldSize, null);
+            this.size = i;
+            this.publishNanos = System.nanoTime();
+        }
+
+        /**
+         * @return the number of entities in this frame
+         */
+        public int size() {
+            return size;
+        }
+
+        /**
+         * @param index an index in [0, size())
+         * @return the entity at the given index
+         */
+        public Entity entity(int index) {
+            return entities[index];
+        }
+
+        /**
+         * @param index an index in [0, size())
+         * @return the id of the entity at the given index, which is the same in consecutive frames
+         */
+        public int id(int index) {
+            return ids[index];
+        }
+
+        /**
+         * @param index an index in [0, size())
+         * @return the state of the entity at the given index, at the time of this frame
+         */
+        public State state(int index) {
+            return states[index];
+        }
+
+        /**
+         * @return the game time of the tick of this frame
+         */
+        public float getGameTime() {
+            return gameTime;
+        }
+
+        /**
+         * @return the sequence number of this frame, which is one higher than that of the frame published before
+         */
+        public long getSequence() {
+            return sequence;
+        }
+
+        private State stateOf(int id) {
+            if (!hasIndex) buildIndex();
+
+            int mask = indexOfId.length - 1;
+            for (int slot = hash(id) & mask; indexOfId[slot] != 0; slot = (slot + 1) & mask) {
+                int index = indexOfId[slot] - 1;
+                if (ids[index] == id) return states[index];
+            }
+            return null;
+        }
+
+        private void buildIndex() {
+            int capacity = Integer.highestOneBit(Math.max(size, 1) * 2) * 2;
+            if (indexOfId.length < capacity) {
+                indexOfId = new int[capacity];
+            } else {
+                Arrays.fill(indexOfId, 0);
+            }
+
+            int mask = indexOfId.length - 1;
+            for (int i = 0; i < size; i++) {
+                int slot = hash(ids[i]) & mask;
+                while (indexOfId[slot] != 0) slot = (slot + 1) & mask;
+                indexOfId[slot] = i + 1;
+            }
+            hasIndex = true;
+        }
+    }
+
+    private static int hash(int id) {
+        return id * 0x9E3779B9;
+    }
+}
@@ -112,10 +112,13 @@ public interface Game extends Iterable<Object> {
      */
     void cleanup();
 
+    /**
+     * initializes all {@link GameAspect} elements in order of their dependencies, where independent aspects may be
+     * initialized in parallel.
+     * @see GameAspect#getInitDependencies()
+     */
     default void init() throws Exception {
-        for (GameAspect aspect : getAll(GameAspect.class)) {
-            aspect.init(this);
-        }
+        AspectInitializer.initAll(this);
     }
 
     /**
@@ -8,10 +8,29 @@ package NG.Core;
 public interface GameAspect {
     /**
      * Initialize the state of this object. You should not assume anything about the order of how other {@code
-     * GameAspect}'s {@code init} methods have been called.
+     * GameAspect}'s {@code init} methods have been called, except for those given by {@link #getInitDependencies()}.
      */
     void init(Game game) throws Exception;
 
+    /**
+     * returns the classes of the elements that must be initialized before this aspect. Aspects without a dependency
+     * between them may be initialized concurrently, if they allow this.
+     * @return the classes this aspect depends on in its {@link #init(Game)} method
+     * @implNote default returns an empty array
+     */
+    default Class<?>[] getInitDependencies() {
+        return new Class<?>[0];
+    }
+
+    /**
+     * @return true if {@link #init(Game)} may be executed on a worker thread. Aspects that use the OpenGL context or
+     * other thread-bound resources in their initialisation must return false, and are initialized on the calling thread.
+     * @implNote default returns false
+     */
+    default boolean canInitConcurrently() {
+        return false;
+    }
+
     /**
      * destroy any resources used by this object. The effects of this method should be invertible with the {@link
      * #init(Game)} method
@@ -1,18 +1,21 @@
 package NG.Core;
 
-import NG.DataStructures.Generic.PairList;
 import NG.Rendering.RenderLoop;
 
 import java.util.*;
-import java.util.stream.Collectors;
 
 /**
  * A Service-Oriented-Architecture for games, with identifiers based on classes.
+ * <p>
+ * The elements are kept in an immutable snapshot, which is replaced as a whole when elements are added or removed.
+ * Lookups are cached per class in an immutable map of the snapshot, which is replaced by an extended copy when a class
+ * is first requested, such that {@link #get(Class)} is lock-free from any thread.
  * @author Geert van Ieperen created on 2-4-2019.
  */
 public class GameService implements Game {
-    private Map<Class, Object> lookAsideTable = new HashMap<>();
-    private final PairList<Object, Class> elements;
+    private static final Object NONE = new Object();
+
+    private volatile Snapshot snapshot;
     private final String mainThreadName;
     private Version version;
 
@@ -23,47 +26,35 @@ public class GameService implements Game {
      */
     public GameService(Version version, String mainThreadName, Object... initial) {
         this.version = version;
-        this.elements = new PairList<>(initial.length);
         this.mainThreadName = mainThreadName;
-
-        for (Object elt : initial) {
-            add(elt);
-        }
+        this.snapshot = new Snapshot(initial.clone());
     }
 
     @Override
     public <T> T get(Class<T> target) {
-        Object found = lookAsideTable.get(target);
-        if (found != null) {
-            //noinspection unchecked
-            return (T) found;
-        }
+        Snapshot current = snapshot;
+        Object found = current.get(target);
 
-        for (int i = 0; i < elements.size(); i++) {
-            if (target.isAssignableFrom(elements.right(i))) {
-                Object elt = elements.left(i);
-
-                lookAsideTable.put(target, elt);
-                //noinspection unchecked
-                return (T) elt;
+        if (found == NONE) {
+            List<String> elts = new ArrayList<>();
+            for (Object elt : current.elements) {
+                elts.add(elt.getClass().getSimpleName());
             }
+            throw new NoSuchElementException(String.format("No element of %s :\n%s", target.toString(), elts));
         }
 
-        List<String> elts = elements.stream().map(p -> p.right).map(Class::getSimpleName).collect(Collectors.toList());
-        throw new NoSuchElementException(String.format("No element of %s :\n%s", target.toString(), elts));
+        //noinspection unchecked
+        return (T) found;
     }
 
     @Override
     public <T> List<T> getAll(Class<T> target) {
         List<T> results = new ArrayList<>();
 
-        for (int i = 0; i < elements.size(); i++) {
-            if (target.isAssignableFrom(elements.right(i))) {
-                Object elt = elements.left(i);
-
-                lookAsideTable.put(target, elt);
+        for (Object elt : snapshot.elements) {
+            if (target.isInstance(elt)) {
                 //noinspection unchecked
-                results.add((T) elements.left(i));
+                results.add((T) elt);
             }
         }
 
@@ -71,16 +62,23 @@ public class GameService implements Game {
     }
 
     @Override
-    public void add(Object newElement) {
-        elements.add(newElement, newElement.getClass());
+    public synchronized void add(Object newElement) {
+        Object[] old = snapshot.elements;
+        Object[] elements = Arrays.copyOf(old, old.length + 1);
+        elements[old.length] = newElement;
+        snapshot = new Snapshot(elements);
     }
 
     @Override
-    public boolean remove(Object original) {
-        for (int i = 0; i < elements.size(); i++) {
-            if (elements.left(i) == original) { // pointer equality
-                elements.remove(i);
-                lookAsideTable.clear(); // we can't remove on value
+    public synchronized boolean remove(Object original) {
+        Object[] old = snapshot.elements;
+
+        for (int i = 0; i < old.length; i++) {
+            if (old[i] == original) { // pointer equality
+                Object[] elements = new Object[old.length - 1];
+                System.arraycopy(old, 0, elements, 0, i);
+                System.arraycopy(old, i + 1, elements, i, old.length - i - 1);
+                snapshot = new Snapshot(elements);
                 return true;
             }
         }
@@ -92,7 +90,8 @@ public class GameService implements Game {
     public void executeOnRenderThread(Runnable action) {
         boolean thisIsMainThread = Thread.currentThread().getName().equals(mainThreadName);
 
-        if (thisIsMainThread) {
+        if (thisIsMainThread || !has(RenderLoop.class)) {
+            // without a render loop there is no render thread, nor a context bound to it
             action.run();
 
         } else {
@@ -110,25 +109,14 @@ public class GameService implements Game {
             aspect.cleanup();
         }
 
-        elements.clear();
+        synchronized (this) {
+            snapshot = new Snapshot(new Object[0]);
+        }
     }
 
     @Override
     public boolean has(Class<?> target) {
-        if (lookAsideTable.containsKey(target)) {
-            return true;
-        }
-
-        for (int i = 0; i < elements.size(); i++) {
-            if (target.isAssignableFrom(elements.right(i))) {
-                Object elt = elements.left(i);
-                lookAsideTable.put(target, elt);
-
-                return true;
-            }
-        }
-
-        return false;
+        return snapshot.get(target) != NONE;
     }
 
     @Override
@@ -139,28 +127,59 @@ public class GameService implements Game {
     @Override
     public Iterator<Object> iterator() {
         return new Iterator<>() {
+            final Object[] elements = snapshot.elements;
             int i = 0;
-            int originalSize = elements.size();
 
             @Override
             public boolean hasNext() {
-                return i < elements.size();
+                return i < elements.length;
             }
 
             @Override
             public Object next() {
-                if (originalSize != elements.size()) {
-                    throw new ConcurrentModificationException();
-                }
-                return elements.left(i++);
+                if (i == elements.length) throw new NoSuchElementException();
+                return elements[i++];
             }
 
             @Override
             public void remove() {
-                elements.remove(--i);
-                lookAsideTable.clear(); // we can't remove on value
-                originalSize--;
+                if (i == 0) throw new IllegalStateException();
+                GameService.this.remove(elements[i - 1]);
             }
         };
     }
+
+    /**
+     * an immutable set of elements, which caches the first element of each requested class
+     */
+    private static class Snapshot {
+        final Object[] elements;
+        /** for each requested class, the first element of that class or NONE. Never modified, only replaced */
+        private volatile Map<Class<?>, Object> cache = Collections.emptyMap();
+
+        Snapshot(Object[] elements) {
+            this.elements = elements;
+        }
+
+        Object get(Class<?> type) {
+            Map<Class<?>, Object> current = cache;
+            Object found = current.get(type);
+            if (found != null) return found;
+
+            found = NONE;
+            for (Object elt : elements) {
+                if (type.isInstance(elt)) {
+                    found = elt;
+                    break;
+                }
+            }
+
+            // concurrent misses may drop each other's entry, which is then computed again
+            Map<Class<?>, Object> extended = new HashMap<>(current);
+            extended.put(type, found);
+            cache = Collections.unmodifiableMap(extended);
+
+            return found;
+        }
+    }
 }
@@ -0,0 +1,144 @@
+package NG.Core;
+
+import NG.CollisionDetection.GameState;
+import NG.CollisionDetection.PhysicsEngine;
+import NG.GameEvent.GameEventQueueLoop;
+import NG.GameMap.GameMap;
+import NG.Tools.Logger;
+import NG.Tools.TimeObserver;
+
+/**
+ * Runs the simulation of a game without window, rendering or sound. The game time is driven by a {@link
+ * VirtualGameTimer}, and ticks are executed as fast as possible on the calling thread. This allows batch simulation of
+ * matches and measuring the raw throughput of the simulation.
+ */
+public class HeadlessRunner {
+    private final GameService game;
+    private final VirtualGameTimer timer;
+    private final AbstractGameLoop eventLoop;
+    private final TimeObserver timeObserver;
+    private final float tickDuration;
+
+    /**
+     * creates a game consisting of a {@link PhysicsEngine}, the given map, a {@link GameEventQueueLoop} and a {@link
+     * VirtualGameTimer}. The game is initialized by {@link #init()}
+     * @param version            the version of the game engine
+     * @param map                the map of the game. Its {@link GameMap#draw(NG.Rendering.MatrixStack.SGL) draw}
+     *                           method is never called.
+     * @param ticksPerGameSecond the number of ticks that simulate one second of game time
+     * @param additional         additional elements of the game, for instance AI controllers. These may not require
+     *                           a window.
+     */
+    public HeadlessRunner(Version version, GameMap map, int ticksPerGameSecond, Object... additional) {
+        this.tickDuration = 1f / ticksPerGameSecond;
+        this.timer = new VirtualGameTimer(0);
+        this.eventLoop = new GameEventQueueLoop("Headless loop", ticksPerGameSecond);
+        this.timeObserver = new TimeObserver(ticksPerGameSecond, true);
+
+        PhysicsEngine physics = new PhysicsEngine();
+        physics.setTimeObserver(timeObserver);
+
+        // actions to be executed on the render thread are executed directly on this thread
+        String thisThread = Thread.currentThread().getName();
+        this.game = new GameService(version, thisThread, timer, physics, map, eventLoop);
+        game.addAll(additional);
+    }
+
+    /**
+     * initializes all elements of the game
+     */
+    public void init() throws Exception {
+        game.init();
+    }
+
+    /**
+     * @return the game that is simulated by this runner
+     */
+    public Game getGame() {
+        return game;
+    }
+
+    /**
+     * executes the given number of ticks without waiting, on the current thread.
+     * @param nrOfTicks the number of ticks to simulate
+     * @return a report of the throughput of this run
+     */
+    public Report run(int nrOfTicks) throws Exception {
+        long startTime = System.nanoTime();
+
+        for (int i = 0; i < nrOfTicks; i++) {
+            timer.advance(tickDuration);
+            tick(tickDuration);
+
+            if (Thread.interrupted()) {
+                nrOfTicks = i + 1;
+                break;
+            }
+        }
+
+        float seconds = (System.nanoTime() - startTime) * 1E-9f;
+        int nrOfEntities = game.get(GameState.class).entities().size();
+
+        Report report = new Report(nrOfTicks, seconds, timer.getGametime(), nrOfEntities, timeObserver.resultsTable());
+        Logger.INFO.print(report);
+        return report;
+    }
+
+    /**
+     * executes a single tick that updates the game to the given time, regardless of the tick rate of this runner. This
+     * is used to re-execute recorded ticks.
+     * @param gameTime the game time to simulate to
+     */
+    public void tickTo(float gameTime) throws Exception {
+        float deltaTime = gameTime - timer.getGametime();
+        timer.advanceTo(gameTime);
+        tick(deltaTime);
+    }
+
+    private void tick(float deltaTime) throws Exception {
+        timeObserver.startNewLoop();
+        eventLoop.update(deltaTime);
+        eventLoop.runPostLoopActions();
+    }
+
+    /**
+     * cleans up all elements of the game
+     */
+    public void cleanup() {
+        game.cleanup();
+    }
+
+    /**
+     * the results of one call to {@link #run(int)}
+     */
+    public static class Report {
+        public final int nrOfTicks;
+        public final float realSeconds;
+        public final float gameTime;
+        public final int nrOfEntities;
+        public final String phaseTimings;
+
+        private Report(int nrOfTicks, float realSeconds, float gameTime, int nrOfEntities, String phaseTimings) {
+            this.nrOfTicks = nrOfTicks;
+            this.realSeconds = realSeconds;
+            this.gameTime = gameTime;
+            this.nrOfEntities = nrOfEntities;
+            this.phaseTimings = phaseTimings;
+        }
+
+        /**
+         * @return the average number of ticks executed per real-time second
+         */
+        public float ticksPerSecond() {
+            return nrOfTicks / realSeconds;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(
+                    "Simulated %d ticks (%1.02f game-seconds) in %1.03f seconds: %1.01f TPS, %d entities\n%s",
+                    nrOfTicks, gameTime, realSeconds, ticksPerSecond(), nrOfEntities, phaseTimings
+            );
+        }
+    }
+}
@@ -0,0 +1,167 @@
+package NG.Core;
+
+import NG.DataStructures.Generic.AveragingQueue;
+import NG.Tools.Logger;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Adapts the load of a game loop to the available time, based on the possession of the loop: the fraction of the tick
+ * budget used by the update. When the average possession over a window of ticks stays above a threshold, the governor
+ * first raises the degradation level, signalling subsystems to reduce their work, and when that is exhausted lowers the
+ * tick rate of the loop. When possession stays below a lower threshold, these steps are reversed, but the tick rate is
+ * never raised above the target of the loop.
+ * <p>
+ * A governor is activated with {@link AbstractGameLoop#setGovernor(TickGovernor)}, or by adding it to a game with a
+ * {@link NG.GameEvent.GameEventQueueLoop}.
+ */
+public class TickGovernor {
+    private final int minTps;
+    private final int maxTps;
+    private final int tpsStep;
+    private final int maxLevel;
+    private final int window;
+    private float highPossession = 0.95f;
+    private float lowPossession = 0.6f;
+
+    private AveragingQueue avgPoss;
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+    private int ticksSinceChange = 0;
+    private int level = 0;
+
+    /**
+     * @param minTps   the lowest tick rate the governor may set
+     * @param maxTps   the highest tick rate the governor may set, if the target of the loop is higher
+     * @param tpsStep  the change in tick rate of one step
+     * @param maxLevel the highest degradation level, or 0 to only adapt the tick rate
+     * @param window   the number of ticks over which the possession is averaged, and the minimum number of ticks
+     *                 between two changes
+     */
+    public TickGovernor(int minTps, int maxTps, int tpsStep, int maxLevel, int window) {
+        assert minTps > 0 && minTps <= maxTps && tpsStep > 0 && window > 0;
+        this.minTps = minTps;
+        this.maxTps = maxTps;
+        this.tpsStep = tpsStep;
+        this.maxLevel = maxLevel;
+        this.window = window;
+        this.avgPoss = new AveragingQueue(window);
+    }
+
+    /**
+     * @param high the average possession above which the load is reduced. Defaults to 0.95
+     * @param low  the average possession below which the load is restored. Defaults to 0.6
+     */
+    public void setThresholds(float high, float low) {
+        assert low < high;
+        this.highPossession = high;
+        this.lowPossession = low;
+    }
+
+    /**
+     * adds a listener that is notified when the degradation level changes.
+     * @param listener a subsystem that can reduce its work
+     */
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+        listener.onDegradationChange(level);
+    }
+
+    public void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * @return the current degradation level, where 0 means full quality
+     */
+    public int getLevel() {
+        return level;
+    }
+
+    /**
+     * discards the possession of all ticks so far, for instance because the loop has been paused
+     */
+    void reset() {
+        avgPoss = new AveragingQueue(window);
+        ticksSinceChange = 0;
+    }
+
+    /**
+     * is called by the loop after every tick
+     * @param loop       the loop being governed
+     * @param possession the fraction of the tick budget used by this tick
+     */
+    void onTick(AbstractGameLoop loop, float possession) {
+        avgPoss.add(possession);
+        if (++ticksSinceChange < window) return;
+
+        float average = avgPoss.average();
+        if (average > highPossession) {
+            degrade(loop, average);
+
+        } else if (average < lowPossession) {
+            restore(loop, average);
+        }
+    }
+
+    private void degrade(AbstractGameLoop loop, float average) {
+        int tps = loop.getTPS();
+
+        if (level < maxLevel) {
+            setLevel(level + 1);
+
+        } else if (tps > minTps) {
+            loop.adaptTPS(Math.max(tps - tpsStep, minTps));
+
+        } else {
+            return;
+        }
+
+        Logger.WARN.print(String.format(
+                "%s is overloaded (%d%%), now at %d TPS and degradation level %d",
+                loop, (int) (average * 100), loop.getTPS(), level
+        ));
+        ticksSinceChange = 0;
+    }
+
+    private void restore(AbstractGameLoop loop, float average) {
+        int tps = loop.getTPS();
+        int highest = Math.min(maxTps, loop.getTargetTPS());
+
+        if (tps < highest) {
+            loop.adaptTPS(Math.min(tps + tpsStep, highest));
+
+        } else if (level > 0) {
+            setLevel(level - 1);
+
+        } else {
+            return;
+        }
+
+        Logger.INFO.print(String.format(
+                "%s has headroom (%d%%), now at %d TPS and degradation level %d",
+                loop, (int) (average * 100), loop.getTPS(), level
+        ));
+        ticksSinceChange = 0;
+    }
+
+    private void setLevel(int newLevel) {
+        level = newLevel;
+        for (Listener listener : listeners) {
+            listener.onDegradationChange(newLevel);
+        }
+    }
+
+    /**
+     * a subsystem that adapts its amount of work to the load of the game loop. A listener that is a {@link GameAspect}
+     * of a game with a {@link NG.GameEvent.GameEventQueueLoop} is initialized before that loop, and must thus not depend
+     * on it for its own initialization.
+     */
+    public interface Listener {
+        /**
+         * @param level the new degradation level, where 0 means full quality and higher values mean less work should be
+         *              done. Is also called once when the listener is added.
+         */
+        void onDegradationChange(int level);
+    }
+}
@@ -0,0 +1,361 @@
+package NG.Core;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * A graph of the stages of a game tick, with declared dependencies between stages. Each call to {@link #run(float)}
+ * executes every stage once, after all its dependencies have finished. Stages that do not depend on each other are
+ * executed in parallel on a work-stealing pool, except for the stages that must run on the thread that calls {@link
+ * #run(float)}.
+ * <p>
+ * Stages can be added and removed at any time, but not concurrently with a run. A graph must not be run by more than
+ * one thread at a time.
+ */
+public class TickGraph {
+    private static final int IDLE_POLL_MILLIS = 1;
+    private static final Node DONE = new Node("done", true, null, Collections.emptyList());
+
+    private final ForkJoinPool pool;
+    private final ThreadLocal<Boolean> isRunningStage = ThreadLocal.withInitial(() -> false);
+    private final Map<String, Node> stages = new LinkedHashMap<>();
+    private Node[] order = null; // topologically sorted, null if invalidated
+    private Execution execution = null; // reused by every run of the current order
+
+    /**
+     * creates a graph that runs on the common pool
+     */
+    public TickGraph() {
+        this(ForkJoinPool.commonPool());
+    }
+
+    /**
+     * @param pool the pool that executes the stages in parallel
+     */
+    public TickGraph(ForkJoinPool pool) {
+        this.pool = pool;
+    }
+
+    /**
+     * adds a stage to this graph. The dependencies do not have to be added yet, but must exist when the graph is run.
+     * @param name            a unique name of the stage
+     * @param onCallingThread if true, the stage is always executed on the thread that calls {@link #run(float)}
+     * @param action          the action of the stage
+     * @param dependencies    the names of the stages that must be finished before this stage starts
+     * @throws IllegalArgumentException if a stage with the given name already exists
+     */
+    public synchronized void addStage(String name, boolean onCallingThread, Stage action, String... dependencies) {
+        if (stages.containsKey(name)) {
+            throw new IllegalArgumentException("Stage " + name + " already exists");
+        }
+
+        List<String> depList = new ArrayList<>(List.of(dependencies));
+        stages.put(name, new Node(name, onCallingThread, action, depList));
+        order = null;
+    }
+
+    /**
+     * adds a dependency between two existing stages
+     * @param stage      the stage that must wait
+     * @param dependency the stage that must be finished first
+     * @throws IllegalArgumentException if {@code stage} does not exist
+     */
+    public synchronized void addDependency(String stage, String dependency) {
+        Node node = stages.get(stage);
+        if (node == null) throw new IllegalArgumentException("Stage " + stage + " does not exist");
+
+        node.dependencyNames.add(dependency);
+        order = null;
+    }
+
+    /**
+     * removes a stage and all dependencies on it.
+     * @param name the name of the stage
+     * @return true if the stage existed
+     */
+    public synchronized boolean removeStage(String name) {
+        if (stages.remove(name) == null) return false;
+
+        for (Node node : stages.values()) {
+            node.dependencyNames.remove(name);
+        }
+        order = null;
+        return true;
+    }
+
+    /**
+     * executes all stages once, and returns when all stages are finished. If a stage throws an exception, all stages
+     * that have not yet started are skipped, and the exception is rethrown after the running stages are finished.
+     * @param gameTime the game time of this tick
+     * @throws IllegalStateException if a dependency is missing or the dependencies contain a cycle
+     */
+    public void run(float gameTime) throws Exception {
+        run(gameTime, null);
+    }
+
+    /**
+     * executes all stages once, as {@link #run(float)}. While the calling thread has no stage to execute, it
+     * repeatedly executes the given idle action. If the calling thread is interrupted while waiting, all stages that
+     * have not yet started are skipped, and the {@link InterruptedException} is thrown after the running stages are
+     * finished.
+     * @param gameTime   the game time of this tick
+     * @param idleAction an action executed on the calling thread while waiting, or null to wait passively
+     */
+    public void run(float gameTime, Runnable idleAction) throws Exception {
+        Node[] nodes = getOrder();
+        if (nodes.length == 0) return;
+
+        if (nodes.length == 1 || pool.getParallelism() <= 1) {
+            isRunningStage.set(true);
+            try {
+                for (Node node : nodes) {
+                    node.action.run(gameTime);
+                }
+
+            } finally {
+                isRunningStage.set(false);
+            }
+            return;
+        }
+
+        Execution execution = getExecution(nodes);
+        execution.reset(gameTime);
+        for (Node node : nodes) {
+            if (node.dependencies.length == 0) execution.schedule(node);
+        }
+
+        // execute the stages bound to this thread until all stages are done
+        try {
+            while (true) {
+                Node next = (idleAction == null) ?
+                        execution.callerQueue.take() :
+                        execution.callerQueue.poll(IDLE_POLL_MILLIS, TimeUnit.MILLISECONDS);
+
+                if (next == DONE) break;
+
+                if (next == null) {
+                    idleAction.run();
+                } else {
+                    execution.execute(next);
+                }
+            }
+
+        } catch (InterruptedException ex) {
+            execution.failure.compareAndSet(null, ex);
+            execution.awaitUninterruptibly();
+            throw ex;
+        }
+
+        Throwable failure = execution.failure.get();
+        if (failure instanceof Exception) throw (Exception) failure;
+        if (failure instanceof Error) throw (Error) failure;
+    }
+
+    private synchronized Execution getExecution(Node[] nodes) {
+        if (execution == null || execution.nodes != nodes) {
+            execution = new Execution(nodes);
+        }
+        return execution;
+    }
+
+    /**
+     * @return true if the current thread is executing a stage of this graph
+     */
+    public boolean isRunningStage() {
+        return isRunningStage.get();
+    }
+
+    /**
+     * @return the names of all stages, in an order in which they could be executed serially
+     */
+    public List<String> getStageOrder() {
+        Node[] nodes = getOrder();
+        List<String> names = new ArrayList<>(nodes.length);
+        for (Node node : nodes) {
+            names.add(node.name);
+        }
+        return names;
+    }
+
+    private synchronized Node[] getOrder() {
+        if (order != null) return order;
+
+        for (Node node : stages.values()) {
+            node.dependents.clear();
+        }
+
+        for (Node node : stages.values()) {
+            node.dependencies = new Node[node.dependencyNames.size()];
+            for (int i = 0; i < node.dependencies.length; i++) {
+                String depName = node.dependencyNames.get(i);
+                Node dependency = stages.get(depName);
+                if (dependency == null) {
+                    throw new IllegalStateException("Stage " + node.name + " depends on missing stage " + depName);
+                }
+                node.dependencies[i] = dependency;
+                dependency.dependents.add(node);
+            }
+        }
+
+        // Kahn's algorithm, preserving the order of insertion among independent stages
+        List<Node> sorted = new ArrayList<>(stages.size());
+        Map<Node, Integer> remaining = new LinkedHashMap<>();
+        Deque<Node> ready = new ArrayDeque<>();
+
+        for (Node node : stages.values()) {
+            remaining.put(node, node.dependencies.length);
+            if (node.dependencies.length == 0) ready.add(node);
+        }
+
+        while (!ready.isEmpty()) {
+            Node node = ready.remove();
+            sorted.add(node);
+
+            for (Node dependent : node.dependents) {
+                int left = remaining.merge(dependent, -1, Integer::sum);
+                if (left == 0) ready.add(dependent);
+            }
+        }
+
+        if (sorted.size() < stages.size()) {
+            throw new IllegalStateException("Stage dependencies contain a cycle");
+        }
+
+        order = sorted.toArray(new Node[0]);
+        for (int i = 0; i < order.length; i++) {
+            order[i].index = i;
+        }
+        return order;
+    }
+
+    /**
+     * an action of one stage of a tick
+     */
+    public interface Stage {
+        /**
+         * @param gameTime the game time of the tick being executed
+         */
+        void run(float gameTime) throws Exception;
+    }
+
+    private static class Node {
+        final String name;
+        final boolean onCallingThread;
+        final Stage action;
+        final List<String> dependencyNames;
+
+        Node[] dependencies = new Node[0];
+        final List<Node> dependents = new ArrayList<>();
+        int index; // position in the order
+
+        Node(String name, boolean onCallingThread, Stage action, List<String> dependencyNames) {
+            this.name = name;
+            this.onCallingThread = onCallingThread;
+            this.action = action;
+            this.dependencyNames = dependencyNames;
+        }
+
+        @Override
+        public String toString() {
+            return name;
+        }
+    }
+
+    /** the state of a run, reset at the start of every run */
+    private class Execution {
+        final Node[] nodes;
+        /** at most every node and the done marker are queued in one run */
+        final BlockingQueue<Node> callerQueue;
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+        final AtomicInteger remaining = new AtomicInteger();
+        /** for each node in the order, the number of dependencies that have not finished in this run */
+        final AtomicIntegerArray pending;
+        /** for each node in the order, the task that executes it on the pool */
+        final Runnable[] tasks;
+        float gameTime;
+
+        Execution(Node[] nodes) {
+            this.nodes = nodes;
+            this.callerQueue = new ArrayBlockingQueue<>(nodes.length + 1);
+            this.pending = new AtomicIntegerArray(nodes.length);
+            this.tasks = new Runnable[nodes.length];
+
+            for (Node node : nodes) {
+                tasks[node.index] = () -> execute(node);
+            }
+        }
+
+        void reset(float gameTime) {
+            this.gameTime = gameTime;
+            callerQueue.clear();
+            failure.set(null);
+
+            for (Node node : nodes) {
+                pending.set(node.index, node.dependencies.length);
+            }
+            remaining.set(nodes.length);
+        }
+
+        void schedule(Node node) {
+            if (node.onCallingThread) {
+                callerQueue.add(node);
+            } else {
+                pool.execute(tasks[node.index]);
+            }
+        }
+
+        void execute(Node node) {
+            if (failure.get() == null) {
+                isRunningStage.set(true);
+                try {
+                    node.action.run(gameTime);
+
+                } catch (Throwable ex) {
+                    failure.compareAndSet(null, ex);
+
+                } finally {
+                    isRunningStage.set(false);
+                }
+            }
+
+            for (Node dependent : node.dependents) {
+                if (pending.decrementAndGet(dependent.index) == 0) schedule(dependent);
+            }
+
+            if (remaining.decrementAndGet() == 0) callerQueue.add(DONE);
+        }
+
+        /**
+         * waits until all stages are done, skipping the stages bound to the calling thread. Must only be called after
+         * a failure is set. The interrupted status of the thread is preserved.
+         */
+        void awaitUninterruptibly() {
+            boolean isInterrupted = false;
+
+            while (true) {
+                try {
+                    Node next = callerQueue.take();
+                    if (next == DONE) break;
+                    execute(next);
+
+                } catch (InterruptedException ex) {
+                    isInterrupted = true;
+                }
+            }
+
+            if (isInterrupted) Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,149 @@
+package NG.Core;
+
+import NG.DataStructures.Generic.AveragingQueue;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Schedules the ticks of a loop on absolute deadlines of {@link System#nanoTime()}. The thread parks until shortly
+ * before the deadline, and then spins (or yields) for the final stretch. Because each deadline is computed from the
+ * previous deadline rather than from the end of the previous tick, rounding errors do not accumulate into drift.
+ * <p>
+ * The jitter of a tick is the time between the deadline and the actual wake-up. Statistics of the jitter are kept by
+ * this scheduler.
+ * <p>
+ * A scheduler with a target of 0 ticks per second does not tick at all: it waits until another rate is set.
+ */
+public class TickScheduler {
+    /** if a tick is more than this number of periods late, the schedule restarts from now instead of catching up */
+    private static final int MAX_CATCH_UP_PERIODS = 2;
+    /** the time between checks for a new tick rate, while the target is 0 ticks per second */
+    private static final long IDLE_PARK_NANOS = 100_000_000;
+
+    private volatile long periodNanos; // 0 if there is no target
+    private long spinNanos = 1_000_000;
+    private boolean yieldWhileSpinning = false;
+
+    private long nextDeadline;
+    private final AveragingQueue avgJitter;
+    private long maxJitterNanos = 0;
+
+    /**
+     * @param targetTps the number of ticks per second, or 0 to not tick until a rate is set
+     */
+    public TickScheduler(int targetTps) {
+        this.periodNanos = periodOf(targetTps);
+        this.avgJitter = new AveragingQueue(Math.max(targetTps, 1));
+        this.nextDeadline = System.nanoTime() + periodNanos;
+    }
+
+    /**
+     * restarts the schedule, such that the next tick is one period from now
+     */
+    public void restart() {
+        nextDeadline = System.nanoTime() + periodNanos;
+    }
+
+    /**
+     * waits until the deadline of the next tick, and sets the deadline of the tick after that. Returns immediately if the
+     * deadline has passed.
+     * @throws InterruptedException if the thread is interrupted while waiting
+     */
+    public void awaitNextTick() throws InterruptedException {
+        if (periodNanos == 0) {
+            while (periodNanos == 0) {
+                LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+                if (Thread.interrupted()) throw new InterruptedException();
+            }
+            restart();
+        }
+
+        long parkUntil = nextDeadline - spinNanos;
+        long now;
+
+        // parking may return early, so we check the time after every park
+        while ((now = System.nanoTime()) < parkUntil) {
+            LockSupport.parkNanos(this, parkUntil - now);
+            if (Thread.interrupted()) throw new InterruptedException();
+        }
+
+        while ((now = System.nanoTime()) < nextDeadline) {
+            if (yieldWhileSpinning) {
+                Thread.yield();
+            } else {
+                Thread.onSpinWait();
+            }
+        }
+
+        long jitter = now - nextDeadline;
+        avgJitter.add(jitter);
+        if (jitter > maxJitterNanos) maxJitterNanos = jitter;
+
+        if (jitter > MAX_CATCH_UP_PERIODS * periodNanos) {
+            // too far behind, like after a pause
+            nextDeadline = now + periodNanos;
+        } else {
+            nextDeadline += periodNanos;
+        }
+    }
+
+    /**
+     * @return the number of nanoseconds until the deadline of the next tick, which is negative if the deadline has
+     * passed.
+     */
+    public long nanosRemaining() {
+        return nextDeadline - System.nanoTime();
+    }
+
+    /**
+     * @param targetTps the new number of ticks per second, or 0 to stop ticking. Takes effect after the next tick.
+     */
+    public void setTPS(int targetTps) {
+        this.periodNanos = periodOf(targetTps);
+    }
+
+    /**
+     * @return the duration of one tick in nanoseconds
+     */
+    public long getPeriodNanos() {
+        return periodNanos;
+    }
+
+    /**
+     * sets the time before each deadline in which the thread waits actively instead of parking. A longer spin time gives
+     * more precise ticks, at the cost of processor time.
+     * @param spinNanos the spin time in nanoseconds. Defaults to 1 millisecond.
+     */
+    public void setSpinTime(long spinNanos) {
+        this.spinNanos = Math.max(spinNanos, 0);
+    }
+
+    /**
+     * @param doYield if true, the thread yields while waiting actively instead of spinning.
+     */
+    public void setYieldWhileSpinning(boolean doYield) {
+        this.yieldWhileSpinning = doYield;
+    }
+
+    /**
+     * @return the average jitter of the last second of ticks, in milliseconds
+     */
+    public float averageJitterMillis() {
+        return avgJitter.average() * 1E-6f;
+    }
+
+    /**
+     * @return the largest jitter since the last call to {@link #resetJitterStats()}, in milliseconds
+     */
+    public float maxJitterMillis() {
+        return maxJitterNanos * 1E-6f;
+    }
+
+    public void resetJitterStats() {
+        maxJitterNanos = 0;
+    }
+
+    private static long periodOf(int targetTps) {
+        return targetTps > 0 ? 1_000_000_000L / targetTps : 0;
+    }
+}
@@ -0,0 +1,35 @@
+package NG.Core;
+
+/**
+ * A game timer that is independent of the system clock. The game time only proceeds by calls to {@link
+ * #advance(float)}, which allows simulating faster (or slower) than real-time.
+ */
+public class VirtualGameTimer extends GameTimer {
+
+    public VirtualGameTimer(float startTime) {
+        super(startTime, 0);
+    }
+
+    /**
+     * moves the in-game time forward by the given amount, unless this timer is paused. The new time is visible after the
+     * next call to {@link #updateGameTime()}
+     * @param deltaTime the number of game-seconds to proceed
+     */
+    public void advance(float deltaTime) {
+        if (!isPaused) currentInGameTime += deltaTime;
+    }
+
+    /**
+     * sets the in-game time to the given value, regardless of whether this timer is paused. The new time is visible
+     * after the next call to {@link #updateGameTime()}
+     * @param gameTime the new game time
+     */
+    public void advanceTo(float gameTime) {
+        currentInGameTime = gameTime;
+    }
+
+    @Override
+    protected void updateTimer() {
+        // virtual time does not follow the system time
+    }
+}
@@ -22,6 +22,15 @@ public interface Entity {
      */
     void draw(SGL gl);
 
+    /**
+     * draws this entity in the given state, which is a copy published by the simulation. This method may only be called
+     * from the rendering loop, while the simulation may be updating this entity. Thus, it must not read state that the
+     * simulation changes, such as {@link #getCurrentState()}.
+     * @param gl    the graphics object to be used for rendering, as in {@link #draw(SGL)}
+     * @param state the state of this entity at the current render time
+     */
+    void draw(SGL gl, State state);
+
     /**
      * updates the {@link #getCurrentState()} of this entity to the given gameTime
      * @param gameTime the current game time
@@ -110,4 +119,14 @@ public interface Entity {
      * @return true iff this unit should be removed from the game world.
      */
     boolean isDisposed();
+
+    /**
+     * is called after this entity is disposed and removed from the collision detection. No game state holds a reference
+     * to this entity once this method is called. However, frames published by a {@link NG.Core.FramePipeline} may
+     * still draw this entity until the last frame published before this call is {@link
+     * NG.Core.FramePipeline#isRetired(long) retired}. Implementations may only recycle the object after that.
+     * @implNote default does nothing
+     */
+    default void onRemoval() {
+    }
 }
@@ -47,6 +47,28 @@ public class MutableState implements State {
         this(source.time(), source.position(), source.velocity(), source.orientation(), new Quaternionf());
     }
 
+    /**
+     * sets this state to a copy of the given state, reusing the objects of this state
+     * @param source another state
+     * @return this
+     */
+    public MutableState set(State source) {
+        this.time = source.time();
+        this.position.set(source.position());
+        this.velocity.set(source.velocity());
+        this.orientation.set(source.orientation());
+
+        Quaternionf sourceSpeed = (source instanceof MutableState) ? ((MutableState) source).rotationSpeed : null;
+        if (rotationSpeed == null) rotationSpeed = new Quaternionf();
+        if (sourceSpeed == null) {
+            rotationSpeed.identity();
+        } else {
+            rotationSpeed.set(sourceSpeed);
+        }
+
+        return this;
+    }
+
     @Override
     public MutableState copy() {
         return new MutableState(this.time, this.position, this.velocity, this.orientation, this.rotationSpeed);
@@ -1,9 +1,11 @@
 package NG.Entities.Projectiles;
 
+import NG.Core.FramePipeline;
 import NG.Core.Game;
 import NG.Core.GameTimer;
 import NG.Entities.Entity;
 import NG.Entities.MovingEntity;
+import NG.Entities.State;
 import NG.Rendering.MatrixStack.SGL;
 import org.joml.Vector3fc;
 
@@ -18,6 +20,11 @@ public abstract class Projectile implements MovingEntity {
     private boolean isDisposed = false;
     private boolean isLaunched = false;
 
+    private ProjectilePool<?> pool = null;
+    private boolean isReleased = false;
+    /** the last frame published before this projectile was removed, or -1 if there is no frame pipeline */
+    private long lastFrame = -1;
+
     public Projectile(Game game, Object source) {
         this.game = game;
         this.source = source;
@@ -59,6 +66,19 @@ public abstract class Projectile implements MovingEntity {
         gl.popMatrix();
     }
 
+    @Override
+    public void draw(SGL gl, State state) {
+        float now = state.time();
+        if (now < spawnTime) return;
+
+        gl.pushMatrix();
+        {
+            gl.translateRotate(state);
+            drawProjectile(gl, now);
+        }
+        gl.popMatrix();
+    }
+
     /**
      * @param gl         draw the projectile, without additional positioning
      * @param renderTime the current rendering time
@@ -86,6 +106,54 @@ public abstract class Projectile implements MovingEntity {
         dispose();
     }
 
+    @Override
+    public void onRemoval() {
+        if (pool == null || isReleased) return;
+
+        isReleased = true;
+        lastFrame = game.has(FramePipeline.class) ? game.get(FramePipeline.class).getLastPublished() : -1;
+        pool.release(this);
+    }
+
+    /**
+     * @return true if no published frame may still draw this projectile, such that it can be recycled
+     */
+    boolean isUnreferenced() {
+        return lastFrame < 0 || game.get(FramePipeline.class).isRetired(lastFrame);
+    }
+
+    /**
+     * resets this projectile to the state right after construction, as if it was created with the given source.
+     * @param source the new source of this projectile
+     */
+    void recycle(Object source) {
+        this.source = source;
+        this.spawnTime = Float.MAX_VALUE;
+        this.isDisposed = false;
+        this.isLaunched = false;
+        this.isReleased = false;
+        this.lastFrame = -1;
+
+        onRecycle();
+    }
+
+    /**
+     * is called when this projectile is taken from a {@link ProjectilePool} to be used again. Implementations should
+     * reset any state that is not overwritten by {@link #setSpawnPosition(Vector3fc)}, preferably by reusing their
+     * existing objects.
+     * @implNote default does nothing
+     */
+    protected void onRecycle() {
+    }
+
+    void setPool(ProjectilePool<?> pool) {
+        this.pool = pool;
+    }
+
+    ProjectilePool<?> getPool() {
+        return pool;
+    }
+
     protected float getSpawnTime() {
         return spawnTime;
     }
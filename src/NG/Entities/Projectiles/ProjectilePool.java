@@ -0,0 +1,120 @@
+package NG.Entities.Projectiles;
+
+import NG.Core.Game;
+import NG.GameEvent.ProjectileSpawnEvent;
+import org.joml.Vector3f;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * A pool of projectiles of one type. Projectiles acquired from this pool are automatically returned to it once they are
+ * disposed and removed from the game state, such that heavy combat does not allocate a new projectile for every shot.
+ * A released projectile is only reused once no frame published for rendering refers to it anymore. Acquiring and
+ * releasing is thread-safe.
+ * @param <P> the type of projectile in this pool
+ */
+public class ProjectilePool<P extends Projectile> {
+    private final Supplier<P> factory;
+    private final Queue<P> available;
+    private final AtomicInteger hits = new AtomicInteger();
+    private final AtomicInteger misses = new AtomicInteger();
+
+    /**
+     * @param factory      creates a new projectile when the pool is empty. The source of the created projectile is
+     *                     overwritten upon acquiring.
+     * @param initialCount the number of projectiles to create in advance
+     */
+    public ProjectilePool(Supplier<P> factory, int initialCount) {
+        this.factory = factory;
+        this.available = new ConcurrentLinkedQueue<>();
+        prewarm(initialCount);
+    }
+
+    /**
+     * creates the given number of projectiles and adds them to the pool. These are not counted as misses.
+     * @param count the number of projectiles to add
+     */
+    public void prewarm(int count) {
+        for (int i = 0; i < count; i++) {
+            P elt = factory.get();
+            elt.setPool(this);
+            available.offer(elt);
+        }
+    }
+
+    /**
+     * returns a projectile that is not in use, creating a new one if none is available. The projectile is reset to its
+     * pre-launch state.
+     * @param source the entity that fired this projectile, which it can not collide with
+     * @return a projectile ready to be launched
+     */
+    public P acquire(Object source) {
+        // projectiles are released in order, so if the oldest may still be drawn, so may all others
+        P elt = available.peek();
+        if (elt != null && !(elt.isUnreferenced() && available.remove(elt))) elt = null;
+
+        if (elt == null) {
+            misses.incrementAndGet();
+            elt = factory.get();
+            elt.setPool(this);
+
+        } else {
+            hits.incrementAndGet();
+        }
+
+        elt.recycle(source);
+        return elt;
+    }
+
+    /**
+     * acquires a projectile and schedules it to be spawned on the given spawn time
+     * @return the scheduled projectile
+     * @see ProjectileSpawnEvent#create(Game, Projectile, float, Vector3f)
+     */
+    public P launch(Game game, Object source, float spawnTime, Vector3f spawnPosition) {
+        P elt = acquire(source);
+        ProjectileSpawnEvent.create(game, elt, spawnTime, spawnPosition);
+        return elt;
+    }
+
+    /**
+     * returns the given projectile to this pool. Should only be called by the projectile itself.
+     * @param projectile a projectile acquired from this pool, which is no longer in use
+     */
+    void release(Projectile projectile) {
+        assert projectile.getPool() == this;
+        //noinspection unchecked
+        available.offer((P) projectile);
+    }
+
+    /**
+     * @return the number of acquired projectiles that were taken from the pool
+     */
+    public int getHits() {
+        return hits.get();
+    }
+
+    /**
+     * @return the number of acquired projectiles that had to be created
+     */
+    public int getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * @return the number of projectiles currently available in the pool
+     */
+    public int available() {
+        return available.size();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s (hits: %d, misses: %d, available: %d)",
+                getClass().getSimpleName(), getHits(), getMisses(), available()
+        );
+    }
+}
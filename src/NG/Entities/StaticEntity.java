@@ -1,6 +1,7 @@
 package NG.Entities;
 
 import NG.DataStructures.Vector3fxc;
+import NG.Rendering.MatrixStack.SGL;
 import org.joml.Quaternionf;
 
 /**
@@ -19,6 +20,12 @@ public abstract class StaticEntity implements Entity {
         this(new FixedState(position, orientation, currentTime));
     }
 
+    @Override
+    public void draw(SGL gl, State state) {
+        // this entity looks the same in every state
+        draw(gl);
+    }
+
     @Override
     public void update(float gameTime) {
         state.update(gameTime);
@@ -0,0 +1,13 @@
+package NG.GameEvent;
+
+/**
+ * An event that may be combined with other events of the same class and the same time, and executed as a single {@link
+ * EventBatch}.
+ * @param <E> the type of this event
+ */
+public interface BatchableEvent<E extends Event> {
+    /**
+     * @return a new batch, containing only this event
+     */
+    EventBatch<E> createBatch();
+}
@@ -5,12 +5,32 @@ import NG.Core.GameTimer;
 import NG.Tools.Logger;
 import NG.Tools.Toolbox;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+
 /**
  * a generic event that happens on a predetermined time. Triggering of the event should result in a stimulus being
  * broadcasted.
  */
 public abstract class Event implements Comparable<Event>, Runnable {
+    // every change of state is a single compare-and-set, such that a cancellation and an execution never both succeed
+    private static final int PENDING = 0;
+    private static final int QUEUED = 1;
+    private static final int STARTED = 2;
+    private static final int CANCELLED = 3;
+    private static final int CANCELLED_QUEUED = 4; // cancelled while queued, and counted in the cancel counter
+    private static final AtomicIntegerFieldUpdater<Event> STATE =
+            AtomicIntegerFieldUpdater.newUpdater(Event.class, "state");
+
     protected final float eventTime;
+    /** order of insertion in the event queue, to order events with equal time */
+    long sequenceNumber;
+    /** counts the cancelled events of the queue this event is in, or null if this event is not queued */
+    private volatile AtomicInteger cancelCounter = null;
+    private volatile int state = PENDING;
 
     /**
      * @param eventTime the time of activation in seconds
@@ -26,6 +46,81 @@ public abstract class Event implements Comparable<Event>, Runnable {
         return eventTime;
     }
 
+    /**
+     * prevents this event from being executed. The event is removed from its queue lazily. Cancelling an event that has
+     * already started has no effect, and cancelling an event more than once is the same as cancelling it once.
+     */
+    public void cancel() {
+        while (true) {
+            int current = state;
+
+            if (current == PENDING) {
+                if (STATE.compareAndSet(this, PENDING, CANCELLED)) return;
+
+            } else if (current == QUEUED) {
+                // the counter is set before the event becomes queued
+                AtomicInteger counter = cancelCounter;
+                if (STATE.compareAndSet(this, QUEUED, CANCELLED_QUEUED)) {
+                    if (counter != null) counter.incrementAndGet();
+                    return;
+                }
+
+            } else {
+                return;
+            }
+        }
+    }
+
+    /**
+     * @return true if {@link #cancel()} has been called on this event before it started
+     */
+    public boolean isCancelled() {
+        int current = state;
+        return current == CANCELLED || current == CANCELLED_QUEUED;
+    }
+
+    /**
+     * marks this event as part of a queue. Cancellations of this event are counted in the given counter until the event
+     * is started or dequeued.
+     * @return false if this event is cancelled or already queued or started, in which case it must not be queued
+     */
+    boolean enqueue(AtomicInteger counter) {
+        cancelCounter = counter;
+        return STATE.compareAndSet(this, PENDING, QUEUED);
+    }
+
+    /**
+     * claims the execution of this event. Must be called by the queue of this event before running it, or by whoever
+     * runs an event that was never queued.
+     * @return true if this event may be executed, false if it was cancelled or has already started
+     */
+    boolean start() {
+        int current = state;
+        while (current == PENDING || current == QUEUED) {
+            if (STATE.compareAndSet(this, current, STARTED)) {
+                cancelCounter = null;
+                return true;
+            }
+            current = state;
+        }
+        return false;
+    }
+
+    /**
+     * removes this event from its queue without executing it. An event that was not cancelled may be queued again.
+     * @return true if the event was cancelled while queued, such that its cancellation was counted
+     */
+    boolean dequeue() {
+        if (STATE.compareAndSet(this, QUEUED, PENDING)) {
+            cancelCounter = null;
+            return false;
+        }
+
+        boolean wasCounted = STATE.compareAndSet(this, CANCELLED_QUEUED, CANCELLED);
+        cancelCounter = null;
+        return wasCounted;
+    }
+
     @Override
     public int compareTo(Event other) {
         return Float.compare(eventTime, other.eventTime);
@@ -34,7 +129,7 @@ public abstract class Event implements Comparable<Event>, Runnable {
     /**
      * an event that does nothing but triggering a debug statement. This may schedule itself repetitively
      */
-    public static class DebugEvent extends Event {
+    public static class DebugEvent extends Event implements StorableEvent {
         private final float recurrence;
         private Game game;
         private final int id;
@@ -55,6 +150,23 @@ public abstract class Event implements Comparable<Event>, Runnable {
             this.id = nextID++;
         }
 
+        public DebugEvent(DataInputStream in) throws IOException {
+            super(in.readFloat());
+            this.recurrence = in.readFloat();
+            this.id = nextID++;
+        }
+
+        @Override
+        public void restore(Game game) {
+            this.game = game;
+        }
+
+        @Override
+        public void writeToDataStream(DataOutputStream out) throws IOException {
+            out.writeFloat(eventTime);
+            out.writeFloat(recurrence);
+        }
+
         @Override
         public void run() {
             Logger.DEBUG.print(this + " triggered at " + game.get(GameTimer.class).getGametime());
@@ -0,0 +1,74 @@
+package NG.GameEvent;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A group of events of the same class and the same time, that is executed as one event on that time. Events are only
+ * combined if they implement {@link BatchableEvent}, and the batch is executed on the thread of the event loop. A batch
+ * releases its events once it has been executed.
+ * @param <E> the type of the events in this batch
+ */
+public abstract class EventBatch<E extends Event> extends Event {
+    private final List<E> events = new ArrayList<>();
+    private final Class<?> eventClass;
+    private boolean isClosed = false;
+
+    /**
+     * @param first the first event of this batch, which determines the time of execution
+     */
+    protected EventBatch(E first) {
+        super(first.getTime());
+        this.events.add(first);
+        this.eventClass = first.getClass();
+    }
+
+    /**
+     * adds an event to this batch, if possible. Only events of exactly the time of this batch are accepted, and no
+     * events are accepted after this batch has started.
+     * @param event an event of the type of this batch
+     * @return true if the event is added to this batch
+     */
+    boolean offer(E event) {
+        if (isClosed || event.getTime() != eventTime) return false;
+
+        events.add(event);
+        return true;
+    }
+
+    /** @return the class of the events of this batch */
+    Class<?> getEventClass() {
+        return eventClass;
+    }
+
+    @Override
+    public final void run() {
+        isClosed = true;
+        // claim every member, such that a member cancelled concurrently is either skipped or executed
+        events.removeIf(e -> !e.start());
+
+        try {
+            if (events.size() == 1) {
+                events.get(0).run();
+
+            } else if (!events.isEmpty()) {
+                runAll(Collections.unmodifiableList(events));
+            }
+
+        } finally {
+            events.clear();
+        }
+    }
+
+    /**
+     * executes all events of this batch at once. Is only called if this batch holds more than one event.
+     * @param events the events of this batch, in order of scheduling
+     */
+    protected abstract void runAll(List<E> events);
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + " of " + events.size() + " events";
+    }
+}
@@ -0,0 +1,279 @@
+package NG.GameEvent;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A hierarchical timing wheel of events, keyed on tick index. Adding an event takes constant time, and all events of
+ * one tick are extracted at once. Events of the same tick are returned sorted on time, and events with equal time in
+ * order of insertion. This class is not thread-safe.
+ * <p>
+ * The wheel has {@link #NR_OF_LEVELS} levels of {@link #SLOTS_PER_LEVEL} slots. A slot of level {@code n} holds the
+ * events of {@code SLOTS_PER_LEVEL^n} ticks. Whenever the current tick enters the range of a slot of a higher level,
+ * its events are redistributed over the lower levels. Events beyond the range of the highest level are kept aside until
+ * the highest level wraps around.
+ * <p>
+ * Cancelled events are skipped when they are extracted. When more than half of the events in the wheel are cancelled,
+ * all cancelled events are removed at once. The number of cancelled events is only lowered by the number of cancelled
+ * events actually removed, such that cancellations by other threads are never lost.
+ */
+class EventTimingWheel {
+    private static final int LEVEL_BITS = 6;
+    private static final int SLOTS_PER_LEVEL = 1 << LEVEL_BITS;
+    private static final int SLOT_MASK = SLOTS_PER_LEVEL - 1;
+    private static final int NR_OF_LEVELS = 4;
+    /** minimum number of cancelled events before the wheel is compacted */
+    private static final int COMPACT_THRESHOLD = 64;
+    /** events of the same tick are executed in order of time, and otherwise in order of insertion */
+    private static final Comparator<Event> TICK_ORDER = (a, b) -> {
+        int c = Float.compare(a.eventTime, b.eventTime);
+        return c != 0 ? c : Long.compare(a.sequenceNumber, b.sequenceNumber);
+    };
+
+    private final float tickDuration;
+    private final List<Event>[][] wheels;
+    private final List<Event> overflow = new ArrayList<>();
+
+    /** events of ticks before nextTick, sorted, starting at batchIndex */
+    private final ArrayList<Event> batch = new ArrayList<>();
+    private int batchIndex = 0;
+
+    private long nextTick;
+    private long nextSequenceNumber = 0;
+    private int size = 0;
+    private final AtomicInteger nrOfCancelled = new AtomicInteger();
+
+    /**
+     * @param tickDuration the game time of one tick
+     * @param startTime    the game time of the first events
+     */
+    @SuppressWarnings("unchecked")
+    EventTimingWheel(float tickDuration, float startTime) {
+        this.tickDuration = tickDuration;
+        this.nextTick = tickOf(startTime);
+        this.wheels = new List[NR_OF_LEVELS][SLOTS_PER_LEVEL];
+
+        for (List<Event>[] level : wheels) {
+            for (int i = 0; i < SLOTS_PER_LEVEL; i++) {
+                level[i] = new ArrayList<>(0);
+            }
+        }
+    }
+
+    /**
+     * adds an event to this wheel.
+     * @param event the new event
+     */
+    void add(Event event) {
+        if (!event.enqueue(nrOfCancelled)) return;
+
+        event.sequenceNumber = nextSequenceNumber++;
+        size++;
+
+        long tick = tickOf(event.eventTime);
+        if (tick < nextTick) {
+            // this tick has already been extracted
+            int index = Collections.binarySearch(batch.subList(batchIndex, batch.size()), event, TICK_ORDER);
+            batch.add(batchIndex + (-index - 1), event);
+
+        } else {
+            place(event, tick);
+        }
+    }
+
+    /**
+     * returns the earliest event of this wheel, if it is due before the given time.
+     * @param limit the game time up to which events are returned, exclusive
+     * @return the next event with a time less than {@code limit}, or null if there is no such event
+     */
+    Event peek(float limit) {
+        int cancelled = nrOfCancelled.get();
+        if (cancelled > COMPACT_THRESHOLD && cancelled * 2 > size) compact();
+
+        while (true) {
+            Event next = peekAny(limit);
+            if (next == null || !next.isCancelled()) return next;
+
+            take();
+            if (next.dequeue()) nrOfCancelled.decrementAndGet();
+        }
+    }
+
+    /** returns the next event before the given time, including cancelled events */
+    private Event peekAny(float limit) {
+        if (batchIndex == batch.size()) {
+            batch.clear();
+            batchIndex = 0;
+
+            long lastTick = tickOf(limit);
+            while (batch.isEmpty() && nextTick <= lastTick) {
+                if (size == 0) {
+                    // nothing to extract, skip all empty ticks
+                    nextTick = lastTick + 1;
+                    return null;
+                }
+
+                extractNextTick();
+            }
+
+            if (batch.isEmpty()) return null;
+        }
+
+        Event next = batch.get(batchIndex);
+        return (next.eventTime < limit) ? next : null;
+    }
+
+    /**
+     * removes the event last returned by {@link #peek(float)}, and claims its execution.
+     * @return true if the event must be executed, or false if it was cancelled since it was returned
+     */
+    boolean remove() {
+        Event event = take();
+        if (event.start()) return true;
+
+        if (event.dequeue()) nrOfCancelled.decrementAndGet();
+        return false;
+    }
+
+    private Event take() {
+        assert batchIndex < batch.size();
+        Event event = batch.set(batchIndex++, null);
+        size--;
+        return event;
+    }
+
+    /**
+     * @return the number of events in this wheel, excluding cancelled events
+     */
+    int size() {
+        return Math.max(size - nrOfCancelled.get(), 0);
+    }
+
+    /**
+     * removes all cancelled events from the wheel
+     */
+    void compact() {
+        int removed = 0;
+        for (List<Event>[] level : wheels) {
+            for (List<Event> slot : level) {
+                removed += removeCancelled(slot);
+            }
+        }
+        removed += removeCancelled(overflow);
+        removed += removeCancelled(batch.subList(batchIndex, batch.size()));
+
+        size -= removed;
+        nrOfCancelled.addAndGet(-removed);
+    }
+
+    private static int removeCancelled(List<Event> events) {
+        int oldSize = events.size();
+        // an event found cancelled has been counted as such
+        events.removeIf(e -> e.isCancelled() && e.dequeue());
+        return oldSize - events.size();
+    }
+
+    /**
+     * removes all events
+     */
+    void clear() {
+        int cancelled = 0;
+        for (List<Event>[] level : wheels) {
+            for (List<Event> slot : level) {
+                cancelled += dequeueAll(slot);
+            }
+        }
+        cancelled += dequeueAll(overflow);
+        cancelled += dequeueAll(batch.subList(batchIndex, batch.size()));
+
+        batch.clear();
+        batchIndex = 0;
+        size = 0;
+        nrOfCancelled.addAndGet(-cancelled);
+    }
+
+    /** dequeues and removes all given events, and returns how many of them were counted as cancelled */
+    private static int dequeueAll(List<Event> events) {
+        int cancelled = 0;
+        for (Event event : events) {
+            if (event.dequeue()) cancelled++;
+        }
+        events.clear();
+        return cancelled;
+    }
+
+    /**
+     * removes all events, and continues the wheel from the tick of the given time
+     * @param startTime the game time of the first events
+     */
+    void reset(float startTime) {
+        clear();
+        nextTick = tickOf(startTime);
+    }
+
+    /**
+     * @return the index of the tick in which the given time lies
+     */
+    long tickOf(float time) {
+        return (long) Math.floor(time / tickDuration);
+    }
+
+    /** puts the event in the lowest level of which a slot holds the given tick, relative to nextTick */
+    private void place(Event event, long tick) {
+        for (int level = 0; level < NR_OF_LEVELS; level++) {
+            int shift = LEVEL_BITS * (level + 1);
+            if ((tick >> shift) == (nextTick >> shift)) {
+                int slot = (int) (tick >> (LEVEL_BITS * level)) & SLOT_MASK;
+                wheels[level][slot].add(event);
+                return;
+            }
+        }
+
+        overflow.add(event);
+    }
+
+    /** moves all events of nextTick to the batch, and proceeds nextTick by one */
+    private void extractNextTick() {
+        // nextTick starts a new range of some levels
+        if ((nextTick & SLOT_MASK) == 0) cascade();
+
+        List<Event> slot = wheels[0][(int) nextTick & SLOT_MASK];
+        if (!slot.isEmpty()) {
+            batch.addAll(slot);
+            slot.clear();
+            batch.sort(TICK_ORDER);
+        }
+
+        nextTick++;
+    }
+
+    /** redistributes the events of each higher-level slot that starts at nextTick */
+    private void cascade() {
+        int highest = 1;
+        while (highest < NR_OF_LEVELS && (nextTick & ((1L << (LEVEL_BITS * (highest + 1))) - 1)) == 0) {
+            highest++;
+        }
+
+        if (highest == NR_OF_LEVELS && !overflow.isEmpty()) {
+            List<Event> events = new ArrayList<>(overflow);
+            overflow.clear();
+            for (Event event : events) {
+                place(event, tickOf(event.eventTime));
+            }
+        }
+
+        for (int level = Math.min(highest, NR_OF_LEVELS - 1); level >= 1; level--) {
+            List<Event> slot = wheels[level][(int) (nextTick >> (LEVEL_BITS * level)) & SLOT_MASK];
+            if (slot.isEmpty()) continue;
+
+            Event[] events = slot.toArray(new Event[0]);
+            slot.clear();
+            for (Event event : events) {
+                place(event, tickOf(event.eventTime));
+            }
+        }
+    }
+}
@@ -5,26 +5,37 @@ import NG.Core.GameTimer;
 import NG.Tools.Logger;
 
 import java.util.PriorityQueue;
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
 
 /**
- * a game queue that only allows adding events as result of events or when the queue is empty. Externally added events
- * are allowed only after the next event to be executed. Otherwise, the new event is delayed until after the next event.
- * Very efficient when used correctly.
+ * a game queue that executes each event on its own time, on a separate thread. The thread runs until {@link
+ * #stopLoop()} is called or it is interrupted.
+ * <p>
+ * New events are pushed on a lock-free queue, which is moved to the event queue by the thread of this loop. The thread
+ * parks until the next event is due, and is woken up when an earlier event is added. Cancelled events are discarded
+ * when they reach the head of the queue, or when they make up most of the queue.
  * @author Geert van Ieperen created on 13-2-2019.
  */
 public class GameEventQueue extends Thread implements EventLoop {
-    private final PriorityQueue<Event> eventQueue;
-    private final Lock lockNewEvent;
-
-    private boolean shouldStop = false;
+    /** minimum number of cancelled events before the queue is compacted */
+    private static final int COMPACT_THRESHOLD = 64;
+    private final PriorityQueue<Event> eventQueue; // only accessed by this thread
+    private final Queue<Event> newEvents;
+    private final AtomicInteger nrOfCancelled = new AtomicInteger();
+
+    private volatile boolean shouldStop = false;
+    /** the time of the event this thread is waiting for */
+    private volatile float nextDeadline = Float.POSITIVE_INFINITY;
+    private long spinNanos = 0;
     private Game game;
 
     public GameEventQueue() {
         super("Game Event Loop");
         eventQueue = new PriorityQueue<>();
-        lockNewEvent = new ReentrantLock();
+        newEvents = new ConcurrentLinkedQueue<>();
     }
 
     @Override
@@ -35,22 +46,46 @@ public class GameEventQueue extends Thread implements EventLoop {
     @Override
     public void run() {
         try {
-            while (!eventQueue.isEmpty() && !Thread.interrupted()) {
-                lockNewEvent.lock();
-                Event nextEvent = eventQueue.remove();
-                lockNewEvent.unlock();
+            while (!shouldStop && !Thread.interrupted()) {
+                drainNewEvents();
+                Event nextEvent = eventQueue.peek();
+
+                if (nextEvent != null && nextEvent.isCancelled()) {
+                    eventQueue.remove();
+                    if (nextEvent.dequeue()) nrOfCancelled.decrementAndGet();
+                    continue;
+                }
+
+                if (nextEvent == null) {
+                    nextDeadline = Float.POSITIVE_INFINITY;
+                    if (newEvents.isEmpty()) LockSupport.park(this);
+                    continue;
+                }
 
                 GameTimer timer = game.get(GameTimer.class);
                 timer.updateGameTime();
                 float gametime = timer.getGametime();
-                float remainingSeconds = nextEvent.getTime() - gametime;
-                long millis = (long) (remainingSeconds * 1000);
-                Thread.sleep(millis);
-
-                if (shouldStop) break;
-
-                // do stuff
-                nextEvent.run();
+                long remainingNanos = (long) ((nextEvent.getTime() - gametime) * 1E9);
+
+                if (remainingNanos > spinNanos) {
+                    // an earlier event unparks this thread, after which the head is re-evaluated
+                    nextDeadline = nextEvent.getTime();
+                    if (newEvents.isEmpty()) LockSupport.parkNanos(this, remainingNanos - spinNanos);
+                    continue;
+
+                } else if (remainingNanos > 0) {
+                    Thread.onSpinWait();
+                    continue;
+                }
+
+                eventQueue.remove();
+                if (nextEvent.start()) {
+                    nextEvent.run();
+
+                } else if (nextEvent.dequeue()) {
+                    // cancelled since it was peeked
+                    nrOfCancelled.decrementAndGet();
+                }
             }
 
         } catch (Exception ex) {
@@ -68,16 +103,37 @@ public class GameEventQueue extends Thread implements EventLoop {
     }
 
     public void stopLoop() {
-        shouldStop = false;
+        shouldStop = true;
+        LockSupport.unpark(this);
+    }
+
+    /**
+     * sets the time before an event in which this thread busy-waits instead of parking, to execute events more precise
+     * than the scheduling granularity of the system. Defaults to 0.
+     * @param seconds the spin time in seconds
+     */
+    public void setSpinTime(float seconds) {
+        spinNanos = (long) (seconds * 1E9);
     }
 
     public void addEvent(Event e) {
-        lockNewEvent.lock();
-        try {
-            eventQueue.add(e);
+        newEvents.add(e);
+        if (e.getTime() < nextDeadline) LockSupport.unpark(this);
+    }
 
-        } finally {
-            lockNewEvent.unlock();
+    private void drainNewEvents() {
+        Event e;
+        while ((e = newEvents.poll()) != null) {
+            if (e.enqueue(nrOfCancelled)) eventQueue.add(e);
+        }
+
+        // remove cancelled events when they make up most of the queue
+        int cancelled = nrOfCancelled.get();
+        if (cancelled > COMPACT_THRESHOLD && cancelled * 2 > eventQueue.size()) {
+            int oldSize = eventQueue.size();
+            // an event found cancelled has been counted as such
+            eventQueue.removeIf(event -> event.isCancelled() && event.dequeue());
+            nrOfCancelled.addAndGet(eventQueue.size() - oldSize);
         }
     }
 
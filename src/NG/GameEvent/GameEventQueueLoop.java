@@ -2,29 +2,56 @@ package NG.GameEvent;
 
 import NG.CollisionDetection.GameState;
 import NG.Core.AbstractGameLoop;
+import NG.Core.FramePipeline;
 import NG.Core.Game;
 import NG.Core.GameTimer;
+import NG.Core.TickGovernor;
+import NG.Core.TickGraph;
 import NG.Storable;
+import NG.Tools.Logger;
 
 import java.io.DataOutputStream;
 import java.io.IOException;
-import java.util.PriorityQueue;
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReadWriteLock;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
 /**
  * An object similar to {@link GameEventQueue}, but now the queue is evaluated once every game tick. This allows for
- * external updates to the queue, as with user interaction.
+ * external updates to the queue, as with user interaction. Events are kept in a timing wheel of which the ticks have the
+ * target duration of this loop.
+ * <p>
+ * Events added by other threads are pushed on a lock-free queue, which is moved to the timing wheel by the thread of
+ * this loop. Events added while executing events are put in the wheel directly.
+ * <p>
+ * Events that are {@link BatchableEvent batchable} are combined with other events of their class and the same time,
+ * such that a burst of such events is executed at once.
+ * <p>
+ * If the game holds a {@link TickGovernor}, it governs the tick rate of this loop, and every {@link
+ * TickGovernor.Listener} of the game is registered with it on initialization.
  * @author Geert van Ieperen created on 14-2-2019.
  */
 public class GameEventQueueLoop extends AbstractGameLoop implements Storable, EventLoop {
-    private final PriorityQueue<Event> eventQueue; // requires explicit synchronisation
-    private final Lock lockQueueRead;
-    private final Lock lockQueueEdit;
+    /** name of the stage of the tick graph in which the controllers of the game decide, before the events */
+    public static final String AI_STAGE = "ai";
+    /** name of the stage of the tick graph that executes the events, after which the game state is updated */
+    public static final String EVENT_STAGE = "events";
+
+    private final EventTimingWheel eventWheel; // only accessed by the update thread
+    private final Queue<Event> newEvents; // added by other threads from outside the ticks
+    private final Queue<Event> derivedEvents = new ConcurrentLinkedQueue<>(); // added by stages on other threads
     private Game game;
     private float updateTime;
 
+    private volatile ReplayRecorder recorder = null;
+    private volatile Thread updateThread = null;
+    /** for each batchable class, the batches in the wheel that have not started, by their time */
+    private final Map<Class<?>, Map<Float, EventBatch<?>>> openBatches = new HashMap<>();
+    private final TickGraph tickGraph = new TickGraph();
+    private FramePipeline pipeline = null;
+    private String stateStage = null; // the last stage of the game state, null if not yet added
+
     /**
      * creates a new, paused event loop
      * @param name
@@ -32,86 +59,202 @@ public class GameEventQueueLoop extends AbstractGameLoop implements Storable, Ev
      */
     public GameEventQueueLoop(String name, int targetTps) {
         super(name, targetTps);
-        eventQueue = new PriorityQueue<>();
-        ReadWriteLock rwl = new ReentrantReadWriteLock(false);
-        lockQueueRead = rwl.readLock();
-        lockQueueEdit = rwl.writeLock();
+        eventWheel = new EventTimingWheel(1f / Math.max(targetTps, 1), 0); // reset on init
+        newEvents = new ConcurrentLinkedQueue<>();
+        tickGraph.addStage(AI_STAGE, true, this::runControllers);
+        tickGraph.addStage(EVENT_STAGE, true, t -> processEvents(game.get(GameState.class), t), AI_STAGE);
     }
 
     @Override
     public void init(Game game) throws Exception {
         this.game = game;
         updateTime = game.get(GameTimer.class).getGametime();
+        eventWheel.reset(updateTime);
+        if (stateStage == null) {
+            // the stages stay in the graph when this loop is initialized again
+            stateStage = game.has(GameState.class) ?
+                    game.get(GameState.class).addUpdateStages(tickGraph, EVENT_STAGE) :
+                    EVENT_STAGE;
+        }
+        if (game.has(FramePipeline.class)) pipeline = game.get(FramePipeline.class);
+
+        if (game.has(TickGovernor.class)) {
+            TickGovernor governor = game.get(TickGovernor.class);
+            game.getAll(TickGovernor.Listener.class).forEach(governor::addListener);
+            setGovernor(governor);
+        }
+    }
+
+    @Override
+    public Class<?>[] getInitDependencies() {
+        // the stages of the game state are added to the tick graph, and the listeners are notified when registered
+        return new Class<?>[]{GameState.class, TickGovernor.Listener.class};
+    }
+
+    @Override
+    public boolean canInitConcurrently() {
+        return true;
     }
 
     @Override
     protected void update(float deltaTime) throws Exception {
+        long tickStart = System.nanoTime();
         GameTimer timer = game.get(GameTimer.class);
-        GameState state = game.get(GameState.class);
 
+        updateThread = Thread.currentThread();
         timer.updateGameTime();
         float gameTime = timer.getGametime();
 
-        if (eventQueue.isEmpty()) {
-            state.update(gameTime);
-            return;
+        ReplayRecorder rec = recorder;
+        if (rec != null) rec.startTick();
+
+        tickGraph.run(gameTime);
+
+        if (pipeline != null) {
+            pipeline.publish(gameTime, tickStart, game.get(GameState.class).entities());
         }
 
-        lockQueueRead.lock();
-        Event next = eventQueue.element();
-        lockQueueRead.unlock();
+        if (rec != null) rec.endTick(gameTime);
+    }
 
-        float eventTime = next.getTime();
+    /** executes the controllers of the game, being the elements that are a {@link TickGraph.Stage} */
+    private void runControllers(float gameTime) throws Exception {
+        for (TickGraph.Stage controller : game.getAll(TickGraph.Stage.class)) {
+            controller.run(gameTime);
+        }
+    }
 
-        while (eventTime < gameTime) {
+    /**
+     * executes all events up to the given game time. The state is updated to the time of each event before it is
+     * executed, but not to the given time; that is left to the stages of the state.
+     */
+    private void processEvents(GameState state, float gameTime) throws Exception {
+        while (true) {
+            drainNewEvents();
+
+            Event next = eventWheel.peek(gameTime);
+            if (next == null) break;
+
+            float eventTime = next.getTime();
             if (eventTime > updateTime) {
                 state.update(eventTime);
                 updateTime = eventTime;
-
-                lockQueueRead.lock();
-                next = eventQueue.element();
-                lockQueueRead.unlock();
+                // the state update may have generated an earlier event
+                continue;
             }
 
-            /* if state had to be updated, and a new event was generated,
-             * then the state has already been updated past this new event.
-             */
-            next.run();
+            boolean isClaimed = eventWheel.remove();
+            if (next instanceof EventBatch) closeBatch((EventBatch<?>) next);
+            if (isClaimed) next.run();
+        }
+    }
 
-            lockQueueEdit.lock();
-            eventQueue.remove();
+    @Override
+    public void addEvent(Event e) {
+        assert e.getTime() >= updateTime;
+        // events added during a tick are derived, and are regenerated on replay
+        boolean isDerived = tickGraph.isRunningStage();
 
-            if (eventQueue.isEmpty()) {
-                lockQueueEdit.unlock();
-                break;
-            }
+        if (Thread.currentThread() == updateThread) {
+            // an event added between two ticks is first seen by the next tick
+            if (!isDerived) record(e);
+            schedule(e);
 
-            next = eventQueue.element();
-            lockQueueEdit.unlock();
+        } else if (isDerived) {
+            derivedEvents.add(e);
 
-            eventTime = next.getTime();
+        } else {
+            newEvents.add(e);
         }
+    }
 
-        state.update(gameTime);
+    /**
+     * moves all events added by other threads to the wheel. The events added from outside the ticks are recorded here,
+     * such that a replay adds them before the same tick.
+     */
+    private void drainNewEvents() {
+        Event e;
+        while ((e = derivedEvents.poll()) != null) {
+            schedule(e);
+        }
+        while ((e = newEvents.poll()) != null) {
+            record(e);
+            schedule(e);
+        }
     }
 
-    @Override
-    public void addEvent(Event e) {
-        assert e.getTime() >= updateTime;
-        lockQueueEdit.lock();
+    /** writes the given event to the recorder, if any. If the event can not be recorded, recording stops */
+    private void record(Event e) {
+        ReplayRecorder rec = recorder;
+        if (rec == null) return;
+
         try {
-            eventQueue.add(e);
+            rec.recordEvent(e);
 
-        } finally {
-            lockQueueEdit.unlock();
+        } catch (IOException ex) {
+            Logger.ERROR.print("Recording stopped", ex);
+            recorder = null;
         }
     }
 
+    /** adds the event to the wheel, or to an open batch of its type */
+    @SuppressWarnings("unchecked")
+    private void schedule(Event e) {
+        if (!(e instanceof BatchableEvent)) {
+            eventWheel.add(e);
+            return;
+        }
+
+        Map<Float, EventBatch<?>> batches = openBatches.computeIfAbsent(e.getClass(), c -> new HashMap<>());
+        EventBatch<Event> open = (EventBatch<Event>) batches.get(e.getTime());
+        if (open != null && open.offer(e)) return;
+
+        EventBatch<Event> batch = ((BatchableEvent<Event>) e).createBatch();
+        batches.put(batch.getTime(), batch);
+        eventWheel.add(batch);
+    }
+
+    /** removes a batch that is about to run from the open batches */
+    private void closeBatch(EventBatch<?> batch) {
+        Map<Float, EventBatch<?>> batches = openBatches.get(batch.getEventClass());
+        if (batches != null) batches.remove(batch.getTime(), batch);
+    }
+
+    /**
+     * returns the stages executed every tick. This graph runs {@link #AI_STAGE}, then {@link #EVENT_STAGE}, both on the
+     * thread of this loop, and then the stages added by {@link GameState#addUpdateStages(TickGraph, String...)}.
+     * Subsystems may add stages that run before or after these, or in parallel.
+     * @return the tick graph of this loop
+     */
+    public TickGraph getTickGraph() {
+        return tickGraph;
+    }
+
+    /**
+     * @return the name of the stage of the tick graph that finishes the update of the game state, or {@link
+     * #EVENT_STAGE} if the game has no state. Only defined after this loop is initialized.
+     */
+    public String getStateStage() {
+        return stateStage;
+    }
+
+    /**
+     * sets a recorder that records all events added from outside the ticks of this loop, regardless of the thread that
+     * adds them, and the progress of time. Each event is recorded in the tick that first sees it. If an event can not be
+     * recorded, recording stops with an error. The recorder must be set before the game proceeds, and is not closed by
+     * this loop.
+     * @param recorder the recorder to use, or null to stop recording
+     */
+    public void setRecorder(ReplayRecorder recorder) {
+        this.recorder = recorder;
+    }
+
     @Override
     public void cleanup() {
-        boolean b = lockQueueEdit.tryLock();
-        eventQueue.clear();
-        if (b) lockQueueEdit.unlock();
+        newEvents.clear();
+        derivedEvents.clear();
+        eventWheel.clear();
+        openBatches.clear();
     }
 
     @Override
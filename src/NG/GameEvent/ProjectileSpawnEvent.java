@@ -6,12 +6,16 @@ import NG.Entities.Projectiles.Projectile;
 import org.joml.Vector3f;
 import org.joml.Vector3fc;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.function.Supplier;
 
 /**
+ * Spawns a projectile. The spawn events of the same time are combined, such that all projectiles are added to the game state
+ * at once.
  * @author Geert van Ieperen created on 19-4-2019.
  */
-public class ProjectileSpawnEvent extends Event {
+public class ProjectileSpawnEvent extends Event implements BatchableEvent<ProjectileSpawnEvent> {
     private final Game game;
     private Projectile elt;
     private Vector3fc spawnPosition;
@@ -36,9 +40,53 @@ public class ProjectileSpawnEvent extends Event {
 
     @Override
     public void run() {
+        if (prepare()) {
+            game.get(GameState.class).addEntity(elt);
+        }
+    }
+
+    /**
+     * launches the projectile if this spawn is valid, and otherwise discards it.
+     * @return true if the projectile should be added to the game state
+     */
+    private boolean prepare() {
         if (validity.get()) {
             elt.launch(spawnPosition, eventTime);
-            game.get(GameState.class).addEntity(elt);
+            return true;
+
+        } else {
+            // never entered the game state
+            elt.dispose();
+            elt.onRemoval();
+            return false;
+        }
+    }
+
+    @Override
+    public EventBatch<ProjectileSpawnEvent> createBatch() {
+        return new Batch(this);
+    }
+
+    /**
+     * a batch of projectile spawns, which adds all its projectiles to the game state in one call
+     */
+    private static class Batch extends EventBatch<ProjectileSpawnEvent> {
+        private final Game game;
+
+        Batch(ProjectileSpawnEvent first) {
+            super(first);
+            this.game = first.game;
+        }
+
+        @Override
+        protected void runAll(List<ProjectileSpawnEvent> events) {
+            List<Projectile> projectiles = new ArrayList<>(events.size());
+
+            for (ProjectileSpawnEvent event : events) {
+                if (event.prepare()) projectiles.add(event.elt);
+            }
+
+            game.get(GameState.class).addEntities(projectiles);
         }
     }
 
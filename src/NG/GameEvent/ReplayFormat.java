@@ -0,0 +1,73 @@
+package NG.GameEvent;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Constants and encoding methods of the replay format, as written by {@link ReplayRecorder} and read by {@link
+ * ReplayPlayer}.
+ * <p>
+ * A replay starts with a header of the magic number, the format version, the game version and the initial game time.
+ * The header is followed by a sequence of records, each starting with a tag byte. Integers are written as variable
+ * length numbers of 7 bits per byte. Signed values are zigzag-encoded, and most values are stored as the difference to
+ * the previously written value of the same kind.
+ */
+final class ReplayFormat {
+    static final int MAGIC = 0x4A4A5250; // JJRP
+    static final byte FORMAT_VERSION = 1;
+
+    /** end of the recording */
+    static final byte TAG_END = 0;
+    /** an externally added event: length, then the event as written by {@link NG.Storable#write} */
+    static final byte TAG_EVENT = 1;
+    /** the changed values of one controller: index, change mask, then the changed float bits as delta */
+    static final byte TAG_CONTROLS = 2;
+    /** the execution of one tick: the bits of the game time as delta to the previous tick */
+    static final byte TAG_TICK = 3;
+    /** the state of all entities: count, then per entity the delta of position bits and velocity bits */
+    static final byte TAG_KEYFRAME = 4;
+
+    /** maximum number of bytes of one variable-length integer */
+    static final int MAX_VARINT_BYTES = 5;
+
+    static final int THROTTLE_BIT = 1;
+    static final int PITCH_BIT = 1 << 1;
+    static final int YAW_BIT = 1 << 2;
+    static final int ROLL_BIT = 1 << 3;
+    static final int PRIMARY_FIRE_BIT = 1 << 4;
+    static final int SECONDARY_FIRE_BIT = 1 << 5;
+
+    private ReplayFormat() {
+    }
+
+    /** writes an unsigned variable-length integer. The buffer must have at least {@link #MAX_VARINT_BYTES} left */
+    static void putVarInt(ByteBuffer buffer, int value) {
+        while ((value & ~0x7F) != 0) {
+            buffer.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+    }
+
+    /** writes a signed variable-length integer, such that values close to zero take few bytes */
+    static void putSignedVarInt(ByteBuffer buffer, int value) {
+        putVarInt(buffer, (value << 1) ^ (value >> 31));
+    }
+
+    /** reads a value written by {@link #putVarInt(ByteBuffer, int)} */
+    static int getVarInt(ByteBuffer buffer) throws IOException {
+        int result = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            byte b = buffer.get();
+            result |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) return result;
+        }
+        throw new IOException("Malformed variable-length integer");
+    }
+
+    /** reads a value written by {@link #putSignedVarInt(ByteBuffer, int)} */
+    static int getSignedVarInt(ByteBuffer buffer) throws IOException {
+        int raw = getVarInt(buffer);
+        return (raw >>> 1) ^ -(raw & 1);
+    }
+}
@@ -0,0 +1,356 @@
+package NG.GameEvent;
+
+import NG.CollisionDetection.GameState;
+import NG.Core.Game;
+import NG.Core.HeadlessRunner;
+import NG.Core.Version;
+import NG.DataStructures.Vector3fxc;
+import NG.Entities.Entity;
+import NG.InputHandling.Controllers.AircraftControls;
+import NG.Storable;
+import NG.Tools.Logger;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+import static NG.GameEvent.ReplayFormat.*;
+import static java.nio.file.StandardOpenOption.READ;
+
+/**
+ * Re-runs a recording of a {@link ReplayRecorder} on a {@link HeadlessRunner}, as fast as possible. The runner must be
+ * set up in the same initial state as the recorded game, with the controllers of {@link #getControls(int)} in place of
+ * the recorded controllers. The keyframes of the recording are compared to the simulated state, to detect divergence.
+ */
+public class ReplayPlayer implements AutoCloseable {
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private final ReadableByteChannel channel;
+    private final ByteBuffer buffer;
+    private final Version version;
+    private final float startTime;
+
+    private final List<Controls> controls = new ArrayList<>();
+    private int[] lastEntityBits = new int[0];
+    private int lastTimeBits;
+
+    /**
+     * creates a player and reads the header of the recording
+     * @param channel the channel to read from. It is closed when this player is closed.
+     * @throws IOException if the channel does not contain a recording
+     */
+    public ReplayPlayer(ReadableByteChannel channel) throws IOException {
+        this.channel = channel;
+        this.buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        buffer.flip(); // start empty
+
+        try {
+            require(Integer.BYTES + 1);
+            int magic = buffer.getInt();
+            if (magic != MAGIC) {
+                throw new IOException(String.format("Expected '%08x', but found %08x", MAGIC, magic));
+            }
+
+            byte formatVersion = buffer.get();
+            if (formatVersion != FORMAT_VERSION) {
+                throw new IOException("Unsupported replay format version " + formatVersion);
+            }
+
+            byte[] versionBytes = getBytes();
+            version = new Version(new DataInputStream(new ByteArrayInputStream(versionBytes)));
+
+            require(Integer.BYTES);
+            lastTimeBits = buffer.getInt();
+            startTime = Float.intBitsToFloat(lastTimeBits);
+
+        } catch (BufferUnderflowException ex) {
+            throw new IOException("Unexpected end of replay header", ex);
+        }
+    }
+
+    /**
+     * creates a player reading from the given file
+     * @see #ReplayPlayer(ReadableByteChannel)
+     */
+    public static ReplayPlayer fromFile(Path file) throws IOException {
+        return new ReplayPlayer(FileChannel.open(file, READ));
+    }
+
+    /**
+     * @return the version of the game that was recorded
+     */
+    public Version getVersion() {
+        return version;
+    }
+
+    /**
+     * @return the game time at the start of the recording
+     */
+    public float getStartTime() {
+        return startTime;
+    }
+
+    /**
+     * @param index the index of a recorded controller, as returned by {@link ReplayRecorder#addControls(AircraftControls)}
+     * @return a controller that replays the values of the recorded controller
+     */
+    public AircraftControls getControls(int index) {
+        while (controls.size() <= index) {
+            controls.add(new Controls());
+        }
+        return controls.get(index);
+    }
+
+    /**
+     * executes the remainder of the recording on the given runner. The runner should be initialized.
+     * @param runner a runner in the same initial state as the recorded game
+     * @return a report of this run
+     * @throws IOException if the recording is corrupt
+     */
+    public Report play(HeadlessRunner runner) throws Exception {
+        Game game = runner.getGame();
+        EventLoop eventLoop = game.get(EventLoop.class);
+
+        int nrOfTicks = 0;
+        int nrOfKeyframes = 0;
+        int nrOfDivergences = 0;
+        long realStart = System.nanoTime();
+
+        try {
+            while (true) {
+                require(1);
+                if (!buffer.hasRemaining()) {
+                    Logger.WARN.print("Replay ended without end marker");
+                    break;
+                }
+
+                byte tag = buffer.get();
+                if (tag == TAG_END) break;
+
+                switch (tag) {
+                    case TAG_EVENT:
+                        Event event = readEvent();
+                        ((StorableEvent) event).restore(game);
+                        eventLoop.addEvent(event);
+                        break;
+
+                    case TAG_CONTROLS:
+                        readControls();
+                        break;
+
+                    case TAG_TICK:
+                        require(MAX_VARINT_BYTES);
+                        lastTimeBits += getSignedVarInt(buffer);
+                        runner.tickTo(Float.intBitsToFloat(lastTimeBits));
+                        nrOfTicks++;
+                        break;
+
+                    case TAG_KEYFRAME:
+                        nrOfDivergences += readKeyframe(game.get(GameState.class).entities());
+                        nrOfKeyframes++;
+                        break;
+
+                    default:
+                        throw new IOException("Unknown record type " + tag);
+                }
+            }
+
+        } catch (BufferUnderflowException ex) {
+            throw new IOException("Unexpected end of replay", ex);
+        }
+
+        float seconds = (System.nanoTime() - realStart) * 1E-9f;
+        Report report = new Report(nrOfTicks, seconds, nrOfKeyframes, nrOfDivergences);
+        Logger.INFO.print(report);
+        return report;
+    }
+
+    private Event readEvent() throws IOException {
+        byte[] bytes = getBytes();
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+
+        try {
+            Event event = Storable.read(in, Event.class);
+            if (!(event instanceof StorableEvent)) {
+                throw new IOException(event.getClass() + " is not a " + StorableEvent.class.getSimpleName());
+            }
+            return event;
+
+        } catch (ClassNotFoundException ex) {
+            throw new IOException("Recorded event of unknown class", ex);
+        }
+    }
+
+    private void readControls() throws IOException {
+        require(2 * MAX_VARINT_BYTES + 1);
+        int index = getVarInt(buffer);
+        int mask = buffer.get();
+
+        Controls target = (Controls) getControls(index);
+        for (int j = 0; j < 4; j++) {
+            if ((mask & (1 << j)) == 0) continue;
+            require(MAX_VARINT_BYTES);
+            target.bits[j] += getSignedVarInt(buffer);
+        }
+
+        target.primaryFire = (mask & PRIMARY_FIRE_BIT) != 0;
+        target.secondaryFire = (mask & SECONDARY_FIRE_BIT) != 0;
+    }
+
+    /**
+     * reads a keyframe and compares it to the given entities
+     * @return the number of entities that have a different position than recorded
+     */
+    private int readKeyframe(Collection<Entity> entities) throws IOException {
+        require(MAX_VARINT_BYTES);
+        int nrOfEntities = getVarInt(buffer);
+        if (lastEntityBits.length < nrOfEntities * 6) {
+            lastEntityBits = Arrays.copyOf(lastEntityBits, nrOfEntities * 6);
+        }
+
+        for (int i = 0; i < nrOfEntities * 6; i++) {
+            require(MAX_VARINT_BYTES);
+            lastEntityBits[i] += getSignedVarInt(buffer);
+        }
+
+        if (entities.size() != nrOfEntities) {
+            return Math.abs(entities.size() - nrOfEntities);
+        }
+
+        int divergences = 0;
+        int i = 0;
+        for (Entity entity : entities) {
+            Vector3fxc position = entity.getCurrentState().position();
+            boolean isEqual = position.xBits() == lastEntityBits[i] &&
+                    position.yBits() == lastEntityBits[i + 1] &&
+                    position.zBits() == lastEntityBits[i + 2];
+
+            if (!isEqual) divergences++;
+            i += 6;
+        }
+
+        return divergences;
+    }
+
+    private byte[] getBytes() throws IOException {
+        require(MAX_VARINT_BYTES);
+        int length = getVarInt(buffer);
+        byte[] bytes = new byte[length];
+
+        int offset = 0;
+        while (offset < length) {
+            require(Math.min(length - offset, BUFFER_SIZE));
+            int chunk = Math.min(buffer.remaining(), length - offset);
+            if (chunk == 0) throw new BufferUnderflowException();
+
+            buffer.get(bytes, offset, chunk);
+            offset += chunk;
+        }
+
+        return bytes;
+    }
+
+    /**
+     * makes sure that the given number of bytes is available in the buffer, unless the end of the channel is reached.
+     */
+    private void require(int nrOfBytes) throws IOException {
+        if (buffer.remaining() >= nrOfBytes) return;
+
+        buffer.compact();
+        while (buffer.position() < nrOfBytes) {
+            if (channel.read(buffer) < 0) break;
+        }
+        buffer.flip();
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * the results of one call to {@link #play(HeadlessRunner)}
+     */
+    public static class Report {
+        public final int nrOfTicks;
+        public final float realSeconds;
+        public final int nrOfKeyframes;
+        /** the number of entities that were not on their recorded position, summed over all keyframes */
+        public final int nrOfDivergences;
+
+        private Report(int nrOfTicks, float realSeconds, int nrOfKeyframes, int nrOfDivergences) {
+            this.nrOfTicks = nrOfTicks;
+            this.realSeconds = realSeconds;
+            this.nrOfKeyframes = nrOfKeyframes;
+            this.nrOfDivergences = nrOfDivergences;
+        }
+
+        /**
+         * @return the average number of ticks executed per real-time second
+         */
+        public float ticksPerSecond() {
+            return nrOfTicks / realSeconds;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(
+                    "Replayed %d ticks in %1.03f seconds: %1.01f TPS, %d divergences in %d keyframes",
+                    nrOfTicks, realSeconds, ticksPerSecond(), nrOfDivergences, nrOfKeyframes
+            );
+        }
+    }
+
+    /**
+     * a controller that returns the recorded values
+     */
+    private static class Controls implements AircraftControls {
+        private final int[] bits = new int[4];
+        private boolean primaryFire = false;
+        private boolean secondaryFire = false;
+
+        @Override
+        public void update() {
+            // values are set by the player
+        }
+
+        @Override
+        public float throttle() {
+            return Float.intBitsToFloat(bits[0]);
+        }
+
+        @Override
+        public float pitch() {
+            return Float.intBitsToFloat(bits[1]);
+        }
+
+        @Override
+        public float yaw() {
+            return Float.intBitsToFloat(bits[2]);
+        }
+
+        @Override
+        public float roll() {
+            return Float.intBitsToFloat(bits[3]);
+        }
+
+        @Override
+        public boolean primaryFire() {
+            return primaryFire;
+        }
+
+        @Override
+        public boolean secondaryFire() {
+            return secondaryFire;
+        }
+    }
+}
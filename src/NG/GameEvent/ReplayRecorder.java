@@ -0,0 +1,273 @@
+package NG.GameEvent;
+
+import NG.CollisionDetection.GameState;
+import NG.Core.Game;
+import NG.Core.GameTimer;
+import NG.DataStructures.Vector3fxc;
+import NG.Entities.Entity;
+import NG.Entities.State;
+import NG.InputHandling.Controllers.AircraftControls;
+import NG.Storable;
+import org.joml.Vector3fc;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+import static NG.GameEvent.ReplayFormat.*;
+import static java.nio.file.StandardOpenOption.*;
+
+/**
+ * Records a game to a compact binary stream, such that it can be re-run by a {@link ReplayPlayer}. The recorder writes
+ * all events that are added to the event loop from outside the loop, the values of all registered controllers and
+ * periodically the state of all entities. Every recorded event must implement {@link StorableEvent}; when another event
+ * is added, the event loop stops recording with an error, as the replay would diverge from that point on.
+ * <p>
+ * A recorder is activated with {@link GameEventQueueLoop#setRecorder(ReplayRecorder)}, and must be closed to complete
+ * the recording.
+ * @see ReplayFormat
+ */
+public class ReplayRecorder implements AutoCloseable {
+    private static final int BUFFER_SIZE = 1 << 16;
+    private static final int CONTROLS_RECORD_BYTES = 2 + 2 * MAX_VARINT_BYTES + 4 * MAX_VARINT_BYTES;
+    private static final int ENTITY_RECORD_BYTES = 6 * MAX_VARINT_BYTES;
+
+    private final Game game;
+    private final WritableByteChannel channel;
+    private final ByteBuffer buffer;
+    private final int keyframeInterval;
+
+    private final List<AircraftControls> controls = new ArrayList<>();
+    private int[] lastControlBits = new int[0]; // 4 floats per controller
+    private int[] lastControlFlags = new int[0];
+    private int[] lastEntityBits = new int[0]; // position and velocity per entity
+    private int lastTimeBits;
+
+    private int nrOfTicks = 0;
+    private boolean isClosed = false;
+
+    /**
+     * creates a recorder and writes the header of the recording
+     * @param game             the game to record
+     * @param channel          the channel to write to. It is closed when this recorder is closed.
+     * @param keyframeInterval the number of ticks between two keyframes of the entity states, or 0 to write no
+     *                         keyframes
+     * @throws IOException if the header could not be written
+     */
+    public ReplayRecorder(Game game, WritableByteChannel channel, int keyframeInterval) throws IOException {
+        this.game = game;
+        this.channel = channel;
+        this.keyframeInterval = keyframeInterval;
+        this.buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+
+        ByteArrayOutputStream version = new ByteArrayOutputStream();
+        game.getVersion().writeToDataStream(new DataOutputStream(version));
+
+        float startTime = game.get(GameTimer.class).getGametime();
+        lastTimeBits = Float.floatToIntBits(startTime);
+
+        buffer.putInt(MAGIC);
+        buffer.put(FORMAT_VERSION);
+        putBytes(version.toByteArray());
+        buffer.putInt(lastTimeBits);
+    }
+
+    /**
+     * creates a recorder writing to the given file, overwriting any existing file.
+     * @see #ReplayRecorder(Game, WritableByteChannel, int)
+     */
+    public static ReplayRecorder toFile(Game game, Path file, int keyframeInterval) throws IOException {
+        FileChannel channel = FileChannel.open(file, CREATE, WRITE, TRUNCATE_EXISTING);
+        return new ReplayRecorder(game, channel, keyframeInterval);
+    }
+
+    /**
+     * adds a controller of which the values are recorded every tick. On replay, the controller with the same index is
+     * given by {@link ReplayPlayer#getControls(int)}
+     * @param controller the controller to record
+     * @return the index of this controller
+     */
+    public synchronized int addControls(AircraftControls controller) {
+        int index = controls.size();
+        controls.add(controller);
+
+        lastControlBits = Arrays.copyOf(lastControlBits, (index + 1) * 4);
+        lastControlFlags = Arrays.copyOf(lastControlFlags, index + 1);
+        return index;
+    }
+
+    /**
+     * writes an event that is added from outside the event loop
+     * @param event the event that is added
+     * @throws IOException if the event could not be written, or is not a {@link StorableEvent}. Skipping the event
+     *                     would let the replay diverge, thus the recording should stop.
+     */
+    synchronized void recordEvent(Event event) throws IOException {
+        if (isClosed) return;
+
+        if (!(event instanceof StorableEvent)) {
+            throw new IOException("Event " + event.getClass() + " can not be recorded, as it is not a " +
+                    StorableEvent.class.getSimpleName());
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        Storable.write(new DataOutputStream(bytes), (StorableEvent) event);
+
+        ensureSpace(1);
+        buffer.put(TAG_EVENT);
+        putBytes(bytes.toByteArray());
+    }
+
+    /**
+     * writes the values of all controllers that changed since the previous tick. Should be called right before the
+     * state is updated
+     */
+    synchronized void startTick() throws IOException {
+        if (isClosed) return;
+
+        for (int i = 0; i < controls.size(); i++) {
+            AircraftControls controller = controls.get(i);
+            int base = i * 4;
+
+            int[] bits = {
+                    Float.floatToIntBits(controller.throttle()),
+                    Float.floatToIntBits(controller.pitch()),
+                    Float.floatToIntBits(controller.yaw()),
+                    Float.floatToIntBits(controller.roll())
+            };
+
+            int mask = 0;
+            if (bits[0] != lastControlBits[base]) mask |= THROTTLE_BIT;
+            if (bits[1] != lastControlBits[base + 1]) mask |= PITCH_BIT;
+            if (bits[2] != lastControlBits[base + 2]) mask |= YAW_BIT;
+            if (bits[3] != lastControlBits[base + 3]) mask |= ROLL_BIT;
+            if (controller.primaryFire()) mask |= PRIMARY_FIRE_BIT;
+            if (controller.secondaryFire()) mask |= SECONDARY_FIRE_BIT;
+
+            int floatBits = mask & (THROTTLE_BIT | PITCH_BIT | YAW_BIT | ROLL_BIT);
+            int flags = mask & (PRIMARY_FIRE_BIT | SECONDARY_FIRE_BIT);
+            if (floatBits == 0 && flags == lastControlFlags[i]) continue;
+
+            ensureSpace(CONTROLS_RECORD_BYTES);
+            buffer.put(TAG_CONTROLS);
+            putVarInt(buffer, i);
+            buffer.put((byte) mask);
+
+            for (int j = 0; j < 4; j++) {
+                if ((mask & (1 << j)) == 0) continue;
+                putSignedVarInt(buffer, bits[j] - lastControlBits[base + j]);
+                lastControlBits[base + j] = bits[j];
+            }
+
+            lastControlFlags[i] = flags;
+        }
+    }
+
+    /**
+     * writes the execution of a tick, and if applicable a keyframe of the entities.
+     * @param gameTime the game time that the state has been updated to
+     */
+    synchronized void endTick(float gameTime) throws IOException {
+        if (isClosed) return;
+
+        int timeBits = Float.floatToIntBits(gameTime);
+        ensureSpace(1 + MAX_VARINT_BYTES);
+        buffer.put(TAG_TICK);
+        putSignedVarInt(buffer, timeBits - lastTimeBits);
+        lastTimeBits = timeBits;
+
+        nrOfTicks++;
+        if (keyframeInterval > 0 && nrOfTicks % keyframeInterval == 0) {
+            writeKeyframe(game.get(GameState.class).entities());
+        }
+    }
+
+    private void writeKeyframe(Collection<Entity> entities) throws IOException {
+        int nrOfEntities = entities.size();
+        if (lastEntityBits.length < nrOfEntities * 6) {
+            lastEntityBits = Arrays.copyOf(lastEntityBits, nrOfEntities * 6);
+        }
+
+        ensureSpace(1 + MAX_VARINT_BYTES);
+        buffer.put(TAG_KEYFRAME);
+        putVarInt(buffer, nrOfEntities);
+
+        int i = 0;
+        for (Entity entity : entities) {
+            State state = entity.getCurrentState();
+            Vector3fxc position = state.position();
+            Vector3fc velocity = state.velocity();
+
+            ensureSpace(ENTITY_RECORD_BYTES);
+            putDelta(i++, position.xBits());
+            putDelta(i++, position.yBits());
+            putDelta(i++, position.zBits());
+            putDelta(i++, Float.floatToIntBits(velocity.x()));
+            putDelta(i++, Float.floatToIntBits(velocity.y()));
+            putDelta(i++, Float.floatToIntBits(velocity.z()));
+        }
+    }
+
+    private void putDelta(int index, int value) {
+        putSignedVarInt(buffer, value - lastEntityBits[index]);
+        lastEntityBits[index] = value;
+    }
+
+    /** writes the length of the array, followed by its contents */
+    private void putBytes(byte[] bytes) throws IOException {
+        ensureSpace(MAX_VARINT_BYTES);
+        putVarInt(buffer, bytes.length);
+
+        int offset = 0;
+        while (offset < bytes.length) {
+            if (!buffer.hasRemaining()) flush();
+            int length = Math.min(buffer.remaining(), bytes.length - offset);
+            buffer.put(bytes, offset, length);
+            offset += length;
+        }
+    }
+
+    private void ensureSpace(int nrOfBytes) throws IOException {
+        if (buffer.remaining() < nrOfBytes) flush();
+    }
+
+    /**
+     * writes all buffered data to the channel
+     */
+    public synchronized void flush() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    /**
+     * @return the number of ticks recorded so far
+     */
+    public int getNrOfTicks() {
+        return nrOfTicks;
+    }
+
+    /**
+     * completes the recording and closes the channel. Further calls to the recorder are ignored.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (isClosed) return;
+        isClosed = true;
+
+        ensureSpace(1);
+        buffer.put(TAG_END);
+        flush();
+        channel.close();
+    }
+}
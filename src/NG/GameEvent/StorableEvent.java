@@ -0,0 +1,16 @@
+package NG.GameEvent;
+
+import NG.Core.Game;
+import NG.Storable;
+
+/**
+ * An event that can be written to a stream and restored in another game. Only events of this type can be recorded by a
+ * {@link ReplayRecorder}.
+ */
+public interface StorableEvent extends Storable {
+    /**
+     * is called after this event is read from a stream, before it is added to the event loop of the given game.
+     * @param game the game where this event is executed
+     */
+    void restore(Game game);
+}
@@ -21,9 +21,15 @@ import static NG.Settings.Settings.TILE_SIZE;
  * @author Geert van Ieperen. Created on 29-9-2018.
  */
 public abstract class AbstractMap extends StaticEntity implements GameMap {
+    /** returned by {@link #getTileIntersect(Vector3fc, Vector3fc, int, int)} for coordinates outside the map */
+    static final float NOT_ON_MAP = Float.NaN;
+
     private boolean isDisposed = false;
     private static final FixedState GROUNDED_STATE = new FixedState(new Vector3fx(), new Quaternionf());
 
+    private final ThreadLocal<Tracer> tracers = ThreadLocal.withInitial(Tracer::new);
+    private final HeightPyramid.TileIntersection tileIntersection = this::getTileIntersect;
+
     public AbstractMap() {
         super(GROUNDED_STATE);
     }
@@ -72,37 +78,31 @@ public abstract class AbstractMap extends StaticEntity implements GameMap {
 
     @Override
     public float getIntersection(Vector3fc origin, Vector3fc direction) {
-        if (direction.x() == 0 && direction.y() == 0) return 1;
-
-        Vector2ic size = getSize();
+        Tracer tracer = tracers.get();
 
-        Vector2f coordPos = new Vector2f(origin.x() / TILE_SIZE, origin.y() / TILE_SIZE); // possible off-by-one errors are fixed by worldClip
-        Vector2f coordDir = new Vector2f(direction.x() / TILE_SIZE, direction.y() / TILE_SIZE); // also scale this vector
+        HeightPyramid pyramid = getHeightPyramid();
+        if (pyramid != null) {
+            tracer.ray.set(origin, direction, tileIntersection);
+            return pyramid.castRay(tracer.ray);
+        }
 
-        Vector2f worldClip = new Vector2f();
-        boolean isOnWorld = Intersectionf.intersectRayAab(
-                coordPos.x, coordPos.y, 0,
-                coordDir.x, coordDir.y, 0,
-                1, 1, -1,
-                size.x() - 1, size.y() - 1, 1,
-                worldClip
+        GridCursor cursor = tracer.cursor;
+        cursor.set(
+                origin.x() / TILE_SIZE, origin.y() / TILE_SIZE,
+                direction.x() / TILE_SIZE, direction.y() / TILE_SIZE,
+                0, 1
         );
-        if (!isOnWorld) return 1;
-
-        float adjMin = Math.max(worldClip.x, 0);
-        float adjMax = Math.min(worldClip.y, 1);
 
-        coordPos.add(new Vector2f(coordDir).mul(adjMin));
-        coordDir.mul(adjMax - adjMin);
-        Vector2i lineTraverse = new Vector2i((int) coordPos.x, (int) coordPos.y);
-
-        while (lineTraverse != null) {
-            int xCoord = lineTraverse.x;
-            int yCoord = lineTraverse.y;
+        if (isBounded()) {
+            Vector2ic size = getSize();
+            boolean isOnWorld = cursor.clip(0, 0, size.x(), size.y());
+            if (!isOnWorld) return 1;
+        }
 
-            Float secFrac = getTileIntersect(origin, direction, xCoord, yCoord);
+        do {
+            float secFrac = getTileIntersect(origin, direction, cursor.getX(), cursor.getY());
 
-            if (secFrac == null) {
+            if (Float.isNaN(secFrac)) {
                 return 1;
 
             } else if (secFrac >= 0 && secFrac < 1) {
@@ -110,8 +110,7 @@ public abstract class AbstractMap extends StaticEntity implements GameMap {
             }
 
             // no luck, try next coordinate
-            lineTraverse = nextCoordinate(xCoord, yCoord, coordPos, coordDir, 1);
-        }
+        } while (cursor.advance());
 
         return 1;
     }
@@ -122,6 +121,22 @@ public abstract class AbstractMap extends StaticEntity implements GameMap {
         return dest;
     }
 
+    /**
+     * @return false if this map extends infinitely in every direction, in which case {@link #getSize()} is not a bound
+     * of the coordinates on the map
+     */
+    protected boolean isBounded() {
+        return true;
+    }
+
+    /**
+     * @return the heights of the tiles of this map, such that {@link #getIntersection(Vector3fc, Vector3fc)} can skip
+     * regions below the ray, or null to test every coordinate along the ray
+     */
+    HeightPyramid getHeightPyramid() {
+        return null;
+    }
+
     /**
      * computes the intersection of a ray on the given coordinate
      * @param origin    the origin of the ray in real space
@@ -129,62 +144,13 @@ public abstract class AbstractMap extends StaticEntity implements GameMap {
      * @param xCoord    the x coordinate
      * @param yCoord    the y coordinate
      * @return the first intersection of the ray with this tile, {@link Float#POSITIVE_INFINITY} if it does not hit and
-     * null if the given coordinate is not on the map.
+     * {@link #NOT_ON_MAP} if the given coordinate is not on the map.
      */
-    abstract Float getTileIntersect(Vector3fc origin, Vector3fc direction, int xCoord, int yCoord);
-
-    /**
-     * assuming you are at (xCoord, yCoord), computes the next coordinate hit by the given ray
-     * @param xCoord    the current x coordinate
-     * @param yCoord    the current y coordinate
-     * @param origin    the origin of the ray
-     * @param direction the direction of the ray
-     * @return the next coordinate hit by the ray. If the previous coordinate was not hit by the ray, return a
-     * coordinate closer to the ray than this one (will eventually return coordinates on the ray)
-     */
-    public static Vector2i nextCoordinate(
-            int xCoord, int yCoord, Vector2fc origin, Vector2fc direction, float maximum
-    ) {
-        boolean xIsPos = direction.x() > 0;
-        boolean yIsPos = direction.y() > 0;
-
-        if (direction.x() == 0) {
-            int yNext = yCoord + (yIsPos ? 1 : -1);
-            if ((yNext - origin.y()) / direction.y() > maximum) { // a = o + d * maximum; maximum = (a - o) / d
-                return null;
-            } else {
-                return new Vector2i(xCoord, yNext);
-            }
-
-        } else if (direction.y() == 0) {
-            int xNext = xCoord + (xIsPos ? 1 : -1);
-            if ((xNext - origin.x()) / direction.x() > maximum) {
-                return null;
-            } else {
-                return new Vector2i(xNext, yCoord);
-            }
-        }
-
-        float xIntersect = Intersectionf.intersectRayPlane(
-                origin.x(), origin.y(), 0, direction.x(), direction.y(), 0,
-                (xIsPos ? xCoord + 1 : xCoord), yCoord, 0, (xIsPos ? -1 : 1), 0, 0,
-                1e-3f
-        );
-        float yIntersect = Intersectionf.intersectRayPlane(
-                origin.x(), origin.y(), 0, direction.x(), direction.y(), 0,
-                xCoord, (yIsPos ? yCoord + 1 : yCoord), 0, 0, (yIsPos ? -1 : 1), 0,
-                1e-3f
-        );
-
-        if (xIntersect >= maximum && yIntersect >= maximum) {
-            return null;
-        }
-
-        Vector2i next = new Vector2i(xCoord, yCoord);
-
-        if (xIntersect <= yIntersect) next.add((xIsPos ? 1 : -1), 0);
-        if (yIntersect <= xIntersect) next.add(0, (yIsPos ? 1 : -1));
+    abstract float getTileIntersect(Vector3fc origin, Vector3fc direction, int xCoord, int yCoord);
 
-        return next;
+    /** the objects used by a single thread for computing intersections */
+    private static class Tracer {
+        final GridCursor cursor = new GridCursor();
+        final HeightPyramid.Ray ray = new HeightPyramid.Ray();
     }
 }
@@ -13,10 +13,12 @@ import NG.Shapes.GenericShapes;
 import NG.Tools.AStar;
 import org.joml.*;
 
+import java.io.ByteArrayOutputStream;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
 import java.lang.Math;
+import java.nio.file.Path;
 import java.util.*;
 
 import static NG.Settings.Settings.TILE_SIZE;
@@ -30,7 +32,7 @@ public class BlockMap extends AbstractMap {
     private static final Color4f SELECTION_COLOR = Color4f.BLUE;
     private static final Color4f WHITE = Color4f.WHITE;
 
-    private final List<GameMap.ChangeListener> changeListeners = new ArrayList<>();
+    private final ChangeNotifier changes = new ChangeNotifier();
     private Map<Integer, Set<Integer>> highlightedTiles = new HashMap<>();
     private Game game;
 
@@ -41,11 +43,22 @@ public class BlockMap extends AbstractMap {
     private short[][] map; // strictly positive
     private int xSize;
     private int ySize;
+    private HeightPyramid heightPyramid = null;
+    private MapGenerator initialGenerator = null; // null if the map is not generated on init
 
     public BlockMap() {
         this(TILE_SIZE, 4f * TILE_SIZE_Z, 0f);
     }
 
+    /**
+     * creates a map that is generated by the given generator in {@link #init(Game)}, such that the generation runs
+     * concurrently with the initialisation of the other aspects.
+     */
+    public BlockMap(MapGenerator mapGenerator) {
+        this();
+        this.initialGenerator = mapGenerator;
+    }
+
     public BlockMap(float blockSize, float blockHeight, float blockElevation) {
         this.hBlockSize = blockSize / 2;
         this.blockElevation = blockElevation;
@@ -62,11 +75,19 @@ public class BlockMap extends AbstractMap {
                 map[x][y] = in.readShort();
             }
         }
+
+        heightPyramid = createPyramid(map, xSize, ySize);
     }
 
     @Override
     public void init(Game game) throws Exception {
         this.game = game;
+        if (initialGenerator != null) generateNew(initialGenerator);
+    }
+
+    @Override
+    public boolean canInitConcurrently() {
+        return true;
     }
 
     @Override
@@ -84,21 +105,80 @@ public class BlockMap extends AbstractMap {
             }
         }
 
+        HeightPyramid pyramid = createPyramid(intMap, xSize, ySize);
+
         synchronized (this) {
             this.map = intMap;
             this.xSize = xSize;
             this.ySize = ySize;
+            this.heightPyramid = pyramid;
         }
 
-        changeListeners.forEach(GameMap.ChangeListener::onMapChange);
+        changes.changedAll();
     }
 
     public void setTile(int x, int y, int height) {
         if (map == null || x < 0 || y < 0 || x >= xSize || y >= ySize) return;
 
         map[x][y] = (short) height;
+        updateCell(x, y);
+
+        changes.changed(x, y);
+    }
+
+    /**
+     * creates a height pyramid over the given blocks. Blocks are centered on their coordinate, and may be larger than a
+     * tile.
+     */
+    private HeightPyramid createPyramid(short[][] heights, int xSize, int ySize) {
+        float padding = Math.max(0, hBlockSize - TILE_SIZE / 2);
+        HeightPyramid pyramid = new HeightPyramid(
+                xSize, ySize, HeightPyramid.LEAF_TILES, TILE_SIZE, -TILE_SIZE / 2, -TILE_SIZE / 2, padding
+        );
+
+        for (int x = 0; x < xSize; x++) {
+            for (int y = 0; y < ySize; y++) {
+                pyramid.include(x, y, blockBottom(heights[x][y]), blockTop(heights[x][y]));
+            }
+        }
+
+        pyramid.rebuild();
+        return pyramid;
+    }
+
+    /**
+     * recomputes the height range of the cell of the height pyramid that contains block (x, y)
+     */
+    private void updateCell(int x, int y) {
+        int n = heightPyramid.getTilesPerCell();
+        int xFrom = (x / n) * n;
+        int yFrom = (y / n) * n;
+        int xTo = Math.min(xFrom + n, xSize);
+        int yTo = Math.min(yFrom + n, ySize);
+        float min = Float.POSITIVE_INFINITY;
+        float max = Float.NEGATIVE_INFINITY;
+
+        for (int bx = xFrom; bx < xTo; bx++) {
+            for (int by = yFrom; by < yTo; by++) {
+                min = Math.min(min, blockBottom(map[bx][by]));
+                max = Math.max(max, blockTop(map[bx][by]));
+            }
+        }
+
+        heightPyramid.update(x / n, y / n, min, max);
+    }
+
+    private float blockTop(short height) {
+        return height * TILE_SIZE_Z + blockElevation;
+    }
 
-        changeListeners.forEach(GameMap.ChangeListener::onMapChange);
+    private float blockBottom(short height) {
+        return blockTop(height) - 2 * hBlockHeight;
+    }
+
+    @Override
+    HeightPyramid getHeightPyramid() {
+        return heightPyramid;
     }
 
     @Override
@@ -202,7 +282,12 @@ public class BlockMap extends AbstractMap {
 
     @Override
     public void addChangeListener(GameMap.ChangeListener listener) {
-        changeListeners.add(listener);
+        changes.addListener(listener);
+    }
+
+    @Override
+    public void batchChanges(Runnable edits) {
+        changes.batch(edits);
     }
 
     @Override
@@ -226,7 +311,7 @@ public class BlockMap extends AbstractMap {
 
     @Override
     public void cleanup() {
-        changeListeners.clear();
+        changes.clear();
     }
 
     @Override
@@ -244,6 +329,65 @@ public class BlockMap extends AbstractMap {
         }
     }
 
+    /**
+     * writes this map to the given file in the {@link MapFile} format. Each column of heights is written with one bulk
+     * transfer.
+     * @param file the file to write to. An existing file is replaced.
+     * @see #readFromFile(Path)
+     */
+    public void writeToFile(Path file) throws IOException {
+        ByteArrayOutputStream headerBytes = new ByteArrayOutputStream();
+        DataOutputStream header = new DataOutputStream(headerBytes);
+
+        synchronized (this) {
+            header.writeInt(xSize);
+            header.writeInt(ySize);
+            int columnBytes = ySize * Short.BYTES;
+
+            long payloadSize = (long) xSize * columnBytes;
+
+            try (MapFile mapFile = MapFile.create(file, MapFile.BLOCK_MAP, headerBytes.toByteArray(), payloadSize)) {
+                for (int x = 0; x < xSize; x++) {
+                    mapFile.payload((long) x * columnBytes, columnBytes).asShortBuffer().put(map[x]);
+                }
+            }
+        }
+    }
+
+    /**
+     * reads a map from a file written by {@link #writeToFile(Path)}, using the default block dimensions.
+     * @param file the file to read
+     * @return a new map, which must still be initialized
+     * @throws IOException if the file could not be read or is not a block map
+     */
+    public static BlockMap readFromFile(Path file) throws IOException {
+        BlockMap blockMap = new BlockMap();
+
+        try (MapFile mapFile = MapFile.open(file, MapFile.BLOCK_MAP)) {
+            DataInputStream header = mapFile.header();
+            int xSize = header.readInt();
+            int ySize = header.readInt();
+            int columnBytes = ySize * Short.BYTES;
+
+            short[][] map = new short[xSize][ySize];
+            for (int x = 0; x < xSize; x++) {
+                mapFile.payload((long) x * columnBytes, columnBytes).asShortBuffer().get(map[x]);
+            }
+
+            HeightPyramid pyramid = blockMap.createPyramid(map, xSize, ySize);
+
+            // published as in generateNew, as the map may be shared before it is initialized
+            synchronized (blockMap) {
+                blockMap.map = map;
+                blockMap.xSize = xSize;
+                blockMap.ySize = ySize;
+                blockMap.heightPyramid = pyramid;
+            }
+        }
+
+        return blockMap;
+    }
+
     @Override
     public Collection<Vector2i> findPath(
             Vector2ic source, Vector2ic target, float walkSpeed, float climbSpeed
@@ -268,23 +412,29 @@ public class BlockMap extends AbstractMap {
     }
 
     @Override
-    public Float getTileIntersect(Vector3fc origin, Vector3fc direction, int xCoord, int yCoord) {
-        if (xCoord < 0 || xCoord >= xSize || yCoord < 0 || yCoord >= ySize) return null;
+    public float getTileIntersect(Vector3fc origin, Vector3fc direction, int xCoord, int yCoord) {
+        if (xCoord < 0 || xCoord >= xSize || yCoord < 0 || yCoord >= ySize) return NOT_ON_MAP;
 
-        Vector3f p = getPosition(xCoord, yCoord);//.sub(TILE_SIZE / 2, TILE_SIZE / 2, 0);
-        float top = p.z + blockElevation;
+        float px = xCoord * TILE_SIZE;
+        float py = yCoord * TILE_SIZE;
+        short height = map[xCoord][yCoord];
 
-        Vector2f result = new Vector2f();
+        float bottom = blockBottom(height);
+        float top = blockTop(height);
 
-        boolean doIntersect = Intersectionf.intersectRayAab(
-                origin.x(), origin.y(), origin.z(),
-                direction.x(), direction.y(), direction.z(),
-                p.x - hBlockSize, p.y - hBlockSize, top - 2 * hBlockHeight,
-                p.x + hBlockSize, p.y + hBlockSize, top,
-                result
+        // slab test of the ray against the block
+        float tNear = Math.max(Math.max(
+                HeightPyramid.slab(origin.x(), direction.x(), px - hBlockSize, px + hBlockSize, true),
+                HeightPyramid.slab(origin.y(), direction.y(), py - hBlockSize, py + hBlockSize, true)),
+                HeightPyramid.slab(origin.z(), direction.z(), bottom, top, true)
+        );
+        float tFar = Math.min(Math.min(
+                HeightPyramid.slab(origin.x(), direction.x(), px - hBlockSize, px + hBlockSize, false),
+                HeightPyramid.slab(origin.y(), direction.y(), py - hBlockSize, py + hBlockSize, false)),
+                HeightPyramid.slab(origin.z(), direction.z(), bottom, top, false)
         );
 
-        return doIntersect ? result.x : Float.POSITIVE_INFINITY;
+        return (tNear <= tFar && tFar >= 0) ? tNear : Float.POSITIVE_INFINITY;
     }
 
     @Override
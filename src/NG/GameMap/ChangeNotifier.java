@@ -0,0 +1,134 @@
+package NG.GameMap;
+
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Keeps the version of a map, and notifies the listeners of the map of every change. Changes made during {@link
+ * #batch(Runnable)} are merged into a single change, which is sent when the batch completes.
+ * <p>
+ * Listeners receive the changes one at a time and in order of version, also when the changes are made by different
+ * threads. A change is delivered before the method that made it returns, possibly on another thread that is delivering
+ * at the same time.
+ */
+final class ChangeNotifier {
+    private final List<GameMap.ChangeListener> listeners = new CopyOnWriteArrayList<>();
+    private final Object deliveryLock = new Object();
+
+    // guarded by this
+    private long version = 0;
+    private int batchDepth = 0;
+    private boolean hasPending = false;
+    private boolean isEntirePending = false;
+    private int xMin, yMin, xMax, yMax;
+    private final Queue<MapChange> undelivered = new ArrayDeque<>();
+
+    void addListener(GameMap.ChangeListener listener) {
+        listeners.add(listener);
+    }
+
+    void clear() {
+        listeners.clear();
+    }
+
+    /** notifies a change of the entire map */
+    void changedAll() {
+        synchronized (this) {
+            hasPending = true;
+            isEntirePending = true;
+
+            if (batchDepth > 0) return;
+            queuePending();
+        }
+
+        deliver();
+    }
+
+    /** notifies a change of a single coordinate */
+    void changed(int x, int y) {
+        changed(x, y, x, y);
+    }
+
+    /**
+     * notifies a change of all coordinates from (xMin, yMin) up to and including (xMax, yMax)
+     */
+    void changed(int xMin, int yMin, int xMax, int yMax) {
+        synchronized (this) {
+            if (hasPending) {
+                this.xMin = Math.min(this.xMin, xMin);
+                this.yMin = Math.min(this.yMin, yMin);
+                this.xMax = Math.max(this.xMax, xMax);
+                this.yMax = Math.max(this.yMax, yMax);
+
+            } else {
+                this.xMin = xMin;
+                this.yMin = yMin;
+                this.xMax = xMax;
+                this.yMax = yMax;
+                hasPending = true;
+            }
+
+            if (batchDepth > 0) return;
+            queuePending();
+        }
+
+        deliver();
+    }
+
+    /**
+     * executes the given edits, and notifies the listeners once of the union of all changes made in the meantime.
+     * Batches may be nested, in which case the listeners are notified when the outermost batch completes.
+     */
+    void batch(Runnable edits) {
+        synchronized (this) {
+            batchDepth++;
+        }
+
+        try {
+            edits.run();
+
+        } finally {
+            synchronized (this) {
+                batchDepth--;
+                if (batchDepth == 0 && hasPending) queuePending();
+            }
+
+            deliver();
+        }
+    }
+
+    private void queuePending() {
+        assert Thread.holdsLock(this);
+
+        version++;
+        undelivered.add(isEntirePending ?
+                MapChange.entireMap(version) :
+                new MapChange(version, xMin, yMin, xMax, yMax)
+        );
+
+        hasPending = false;
+        isEntirePending = false;
+    }
+
+    /**
+     * sends all queued changes to the listeners. Changes are queued in order of version, and only one thread sends
+     * changes at a time, such that the listeners receive them in that order.
+     */
+    private void deliver() {
+        synchronized (deliveryLock) {
+            while (true) {
+                MapChange change;
+                synchronized (this) {
+                    change = undelivered.poll();
+                }
+                if (change == null) return;
+
+                for (GameMap.ChangeListener listener : listeners) {
+                    listener.onMapChange(change);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,224 @@
+package NG.GameMap;
+
+import NG.Tools.Logger;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Keeps a limited number of chunks of a map in memory. Chunks are loaded from a {@link Source} on a background pool
+ * when they are requested, and the least recently used chunks are evicted when the total size of the resident chunks
+ * exceeds the memory budget. Chunks that are marked as modified are never evicted, as they can not be restored from the
+ * source.
+ * <p>
+ * Chunks are addressed by chunk coordinate, which may be negative. All methods are thread-safe.
+ */
+public class ChunkCache {
+    private final Source source;
+    private final long bytesPerChunk;
+    private final ExecutorService loader;
+    private long budgetBytes;
+
+    // guarded by this
+    private final LinkedHashMap<Long, MapChunk> resident = new LinkedHashMap<>(64, 0.75f, true);
+    private final Map<Long, CompletableFuture<MapChunk>> loading = new HashMap<>();
+    private final Set<Long> modified = new HashSet<>();
+    private int nrOfEvicted = 0;
+    private boolean isClosed = false;
+
+    /**
+     * @param source        the source of the chunks
+     * @param bytesPerChunk the estimated memory use of a single chunk
+     * @param budgetBytes   the maximum memory used by resident chunks. At least one chunk is always kept.
+     * @param nrOfThreads   the number of threads loading chunks in the background
+     */
+    public ChunkCache(Source source, long bytesPerChunk, long budgetBytes, int nrOfThreads) {
+        this.source = source;
+        this.bytesPerChunk = bytesPerChunk;
+        this.budgetBytes = budgetBytes;
+        this.loader = Executors.newFixedThreadPool(Math.max(nrOfThreads, 1), r -> {
+            Thread thread = new Thread(r, "Chunk loader");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * returns the chunk at the given coordinate, loading it on the calling thread's behalf if it is not resident. If
+     * the chunk is being loaded in the background, this method waits for it.
+     * @return the chunk, or null if it could not be loaded
+     */
+    public MapChunk get(int cx, int cy) {
+        CompletableFuture<MapChunk> future;
+        synchronized (this) {
+            MapChunk chunk = resident.get(key(cx, cy));
+            if (chunk != null) return chunk;
+
+            future = request(cx, cy);
+        }
+
+        return future.join();
+    }
+
+    /**
+     * returns the chunk at the given coordinate only if it is resident, and marks it as recently used.
+     * @return the chunk, or null if it is not resident
+     */
+    public synchronized MapChunk getIfResident(int cx, int cy) {
+        return resident.get(key(cx, cy));
+    }
+
+    /**
+     * starts loading the chunk at the given coordinate in the background, if it is not resident or already loading.
+     */
+    public synchronized void prefetch(int cx, int cy) {
+        if (!resident.containsKey(key(cx, cy))) request(cx, cy);
+    }
+
+    /**
+     * returns the chunk at the given coordinate as {@link #get(int, int)}, and marks it as modified such that it is
+     * never evicted. Must be used for any chunk that is about to be changed.
+     * @return the chunk, or null if it could not be loaded
+     */
+    public MapChunk getModifiable(int cx, int cy) {
+        MapChunk chunk = get(cx, cy);
+        if (chunk == null) return null;
+
+        synchronized (this) {
+            long key = key(cx, cy);
+            // the chunk may have been evicted in the meantime
+            resident.putIfAbsent(key, chunk);
+            modified.add(key);
+            return resident.get(key);
+        }
+    }
+
+    /**
+     * @param budgetBytes the new maximum memory used by resident chunks
+     */
+    public synchronized void setBudget(long budgetBytes) {
+        this.budgetBytes = budgetBytes;
+        evict();
+    }
+
+    public synchronized int getNrOfResident() {
+        return resident.size();
+    }
+
+    /**
+     * stops all background loading, and closes the source. Threads waiting for a chunk that was still loading receive
+     * null, as does any later request.
+     */
+    public void close() {
+        List<CompletableFuture<MapChunk>> pending;
+
+        synchronized (this) {
+            isClosed = true;
+            pending = new ArrayList<>(loading.values());
+            resident.clear();
+            loading.clear();
+            modified.clear();
+        }
+
+        // the loads that have not started are never run, and thus never complete their future
+        loader.shutdownNow();
+        for (CompletableFuture<MapChunk> future : pending) {
+            future.complete(null);
+        }
+
+        try {
+            source.close();
+        } catch (IOException ex) {
+            Logger.ERROR.print(ex);
+        }
+    }
+
+    private CompletableFuture<MapChunk> request(int cx, int cy) {
+        assert Thread.holdsLock(this);
+        if (isClosed) return CompletableFuture.completedFuture(null);
+
+        return loading.computeIfAbsent(key(cx, cy),
+                k -> CompletableFuture.supplyAsync(() -> load(cx, cy), loader)
+        );
+    }
+
+    private MapChunk load(int cx, int cy) {
+        MapChunk chunk = null;
+        try {
+            chunk = source.load(cx, cy);
+
+        } catch (Exception ex) {
+            Logger.ERROR.printf("Could not load chunk (%d, %d): %s", cx, cy, ex);
+        }
+
+        synchronized (this) {
+            long key = key(cx, cy);
+            loading.remove(key);
+
+            if (chunk != null && !isClosed) {
+                resident.put(key, chunk);
+                evict();
+            }
+        }
+
+        return chunk;
+    }
+
+    private void evict() {
+        assert Thread.holdsLock(this);
+
+        Iterator<Long> eldest = resident.keySet().iterator();
+        long size = resident.size() * bytesPerChunk;
+
+        // the most recently used chunk is never evicted
+        int evictable = resident.size() - 1;
+        while (size > budgetBytes && evictable-- > 0) {
+            Long key = eldest.next();
+            if (modified.contains(key)) continue;
+
+            eldest.remove();
+            size -= bytesPerChunk;
+            nrOfEvicted++;
+        }
+    }
+
+    private static long key(int cx, int cy) {
+        return ((long) cx << 32) | (cy & 0xFFFFFFFFL);
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format(
+                "Chunks: %d resident (%d modified), %d loading, %d evicted",
+                resident.size(), modified.size(), loading.size(), nrOfEvicted
+        );
+    }
+
+    /**
+     * a source that can create or load the chunks of a map
+     */
+    public interface Source {
+        /**
+         * loads the chunk at the given chunk coordinate. Is called on a background thread, possibly concurrently for
+         * different chunks.
+         * @return the chunk at the given coordinate
+         * @throws IOException if the chunk could not be loaded
+         */
+        MapChunk load(int cx, int cy) throws IOException;
+
+        /**
+         * releases the resources of this source
+         */
+        default void close() throws IOException {}
+    }
+}
@@ -43,6 +43,11 @@ public class CopyGenerator implements MapGenerator {
         return floats;
     }
 
+    @Override
+    public float getProgress() {
+        return (xSize <= 0 || ySize <= 0) ? 0 : Math.min((float) progress / (xSize * ySize), 1);
+    }
+
     @Override
     public int getMapSeed() {
         return -1;
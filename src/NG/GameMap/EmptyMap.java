@@ -28,6 +28,11 @@ public class EmptyMap extends AbstractMap {
 
     }
 
+    @Override
+    public boolean canInitConcurrently() {
+        return true;
+    }
+
     @Override
     public void generateNew(MapGenerator mapGenerator) {
     }
@@ -66,6 +71,11 @@ public class EmptyMap extends AbstractMap {
 
     }
 
+    @Override
+    public void batchChanges(Runnable edits) {
+        edits.run();
+    }
+
     @Override
     public void setHighlights(Vector2ic... coordinates) {
 
@@ -82,8 +92,8 @@ public class EmptyMap extends AbstractMap {
     }
 
     @Override
-    public Float getTileIntersect(Vector3fc origin, Vector3fc direction, int xCoord, int yCoord) {
-        return null;
+    public float getTileIntersect(Vector3fc origin, Vector3fc direction, int xCoord, int yCoord) {
+        return NOT_ON_MAP;
     }
 
     @Override
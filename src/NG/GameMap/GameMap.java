@@ -88,6 +88,13 @@ public interface GameMap extends GameAspect, Entity, MouseToolListener, Storable
      */
     void addChangeListener(ChangeListener listener);
 
+    /**
+     * executes the given edits of this map, such that the change listeners are notified only once, with a change that
+     * covers all changes made by the edits.
+     * @param edits an action that changes this map
+     */
+    void batchChanges(Runnable edits);
+
     /**
      * sets highlighted tiles. Previously highlighted tiles are cleared, and the highlight will stay until a new call to
      * setHighlights
@@ -128,7 +135,10 @@ public interface GameMap extends GameAspect, Entity, MouseToolListener, Storable
     );
 
     interface ChangeListener {
-        /** is called when the map is changed */
-        void onMapChange();
+        /**
+         * is called when the map is changed. Changes are received one at a time and in order of version.
+         * @param change the region that has changed, and the new version of the map
+         */
+        void onMapChange(MapChange change);
     }
 }
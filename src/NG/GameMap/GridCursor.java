@@ -0,0 +1,125 @@
+package NG.GameMap;
+
+import java.lang.Math;
+
+/**
+ * Walks over the cells of a grid of unit squares that are crossed by the line segment {@code origin + t * direction},
+ * in the order in which they are crossed, following the traversal of Amanatides and Woo. Cell (x, y) covers the square
+ * from (x, y) to (x + 1, y + 1).
+ * <p>
+ * A cursor does not allocate, and can be reused for any number of segments by calling {@link #set}. It is not
+ * thread-safe.
+ */
+public class GridCursor {
+    private float ox, oy, dx, dy;
+    private float tStart, tEnd;
+
+    private int x, y;
+    private int xStep, yStep;
+    private float xNext, yNext; // value of t where the next cell boundary is crossed
+    private float xDelta, yDelta; // difference of t between two boundaries
+    private float tEnter;
+
+    /**
+     * places the cursor on the first cell of the segment {@code origin + t * direction} for tStart <= t <= tEnd
+     */
+    public void set(float ox, float oy, float dx, float dy, float tStart, float tEnd) {
+        this.ox = ox;
+        this.oy = oy;
+        this.dx = dx;
+        this.dy = dy;
+        this.tStart = tStart;
+        this.tEnd = tEnd;
+
+        start(Integer.MIN_VALUE, Integer.MIN_VALUE, Integer.MAX_VALUE, Integer.MAX_VALUE);
+    }
+
+    /**
+     * restricts the segment to the part within the cells from (xMin, yMin) up to but excluding (xMax, yMax), and places
+     * the cursor on the first cell of the remaining segment.
+     * @return false if no part of the segment lies within these cells, in which case the cursor is invalid
+     */
+    public boolean clip(int xMin, int yMin, int xMax, int yMax) {
+        if (dx == 0) {
+            if (ox < xMin || ox >= xMax) return false;
+        } else {
+            float t1 = (xMin - ox) / dx;
+            float t2 = (xMax - ox) / dx;
+            tStart = Math.max(tStart, Math.min(t1, t2));
+            tEnd = Math.min(tEnd, Math.max(t1, t2));
+        }
+
+        if (dy == 0) {
+            if (oy < yMin || oy >= yMax) return false;
+        } else {
+            float t1 = (yMin - oy) / dy;
+            float t2 = (yMax - oy) / dy;
+            tStart = Math.max(tStart, Math.min(t1, t2));
+            tEnd = Math.min(tEnd, Math.max(t1, t2));
+        }
+
+        if (tStart > tEnd) return false;
+
+        start(xMin, yMin, xMax - 1, yMax - 1);
+        return true;
+    }
+
+    private void start(int xMin, int yMin, int xMax, int yMax) {
+        // rounding may place the start just outside the bounds
+        x = clamp((int) Math.floor(ox + dx * tStart), xMin, xMax);
+        y = clamp((int) Math.floor(oy + dy * tStart), yMin, yMax);
+        tEnter = tStart;
+
+        xStep = dx > 0 ? 1 : -1;
+        yStep = dy > 0 ? 1 : -1;
+        xDelta = Math.abs(1 / dx);
+        yDelta = Math.abs(1 / dy);
+        xNext = (dx == 0) ? Float.POSITIVE_INFINITY : ((dx > 0 ? x + 1 : x) - ox) / dx;
+        yNext = (dy == 0) ? Float.POSITIVE_INFINITY : ((dy > 0 ? y + 1 : y) - oy) / dy;
+    }
+
+    /**
+     * moves the cursor to the next cell crossed by the segment
+     * @return false if the segment ends in the current cell, in which case the cursor is not moved
+     */
+    public boolean advance() {
+        if (xNext < yNext) {
+            if (xNext > tEnd) return false;
+            tEnter = xNext;
+            x += xStep;
+            xNext += xDelta;
+
+        } else {
+            if (yNext > tEnd) return false;
+            tEnter = yNext;
+            y += yStep;
+            yNext += yDelta;
+        }
+
+        return true;
+    }
+
+    /** @return the x coordinate of the current cell */
+    public int getX() {
+        return x;
+    }
+
+    /** @return the y coordinate of the current cell */
+    public int getY() {
+        return y;
+    }
+
+    /** @return the value of t where the segment enters the current cell */
+    public float getEnter() {
+        return tEnter;
+    }
+
+    /** @return the value of t where the segment leaves the current cell */
+    public float getExit() {
+        return Math.min(Math.min(xNext, yNext), tEnd);
+    }
+
+    private static int clamp(int value, int min, int max) {
+        return Math.max(min, Math.min(value, max));
+    }
+}
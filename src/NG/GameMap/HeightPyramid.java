@@ -0,0 +1,349 @@
+package NG.GameMap;
+
+import org.joml.Vector3fc;
+
+import java.lang.Math;
+import java.util.Arrays;
+
+/**
+ * A quadtree of height ranges over a grid of tiles, stored as a pyramid of levels. Level 0 holds the minimum and
+ * maximum height of every cell of {@code tilesPerCell * tilesPerCell} tiles, and every cell of level {@code k + 1} holds
+ * the extremes of the (at most) four cells of level {@code k} it covers. The top level is a single cell.
+ * <p>
+ * Tile {@code (x, y)} covers the area from {@code (xOrigin + x * tileSize, yOrigin + y * tileSize)} to {@code (xOrigin
+ * + (x + 1) * tileSize, yOrigin + (y + 1) * tileSize)}, and its contents may extend by the padding on every side. Cells
+ * that were never set have an empty height range.
+ */
+final class HeightPyramid {
+    /** returned by a {@link TileIntersection} if the ray does not hit the tile */
+    static final float MISS = Float.POSITIVE_INFINITY;
+    /** the number of tiles in both directions of a cell of the bottom level, as used by the maps */
+    static final int LEAF_TILES = 8;
+
+    private final int[] xSizes;
+    private final int[] ySizes;
+    private final float[][] minima;
+    private final float[][] maxima;
+    private final int xTiles;
+    private final int yTiles;
+    private final int tilesPerCell;
+    private final float tileSize;
+    private final float xOrigin;
+    private final float yOrigin;
+    private final float padding;
+
+    /**
+     * creates a pyramid of which every cell of the bottom level is a single tile
+     * @see #HeightPyramid(int, int, int, float, float, float, float)
+     */
+    HeightPyramid(int xCells, int yCells, float cellSize, float xOrigin, float yOrigin, float padding) {
+        this(xCells, yCells, 1, cellSize, xOrigin, yOrigin, padding);
+    }
+
+    /**
+     * @param xTiles       the number of tiles in x direction
+     * @param yTiles       the number of tiles in y direction
+     * @param tilesPerCell the number of tiles in both directions of a cell of the bottom level
+     * @param tileSize     the real size of one tile
+     * @param xOrigin      the real x position of the lower edge of tile (0, 0)
+     * @param yOrigin      the real y position of the lower edge of tile (0, 0)
+     * @param padding      the distance the contents of a tile may extend beyond its edges
+     */
+    HeightPyramid(
+            int xTiles, int yTiles, int tilesPerCell, float tileSize, float xOrigin, float yOrigin, float padding
+    ) {
+        this.xTiles = xTiles;
+        this.yTiles = yTiles;
+        this.tilesPerCell = tilesPerCell;
+        this.tileSize = tileSize;
+        this.xOrigin = xOrigin;
+        this.yOrigin = yOrigin;
+        this.padding = padding;
+
+        int xCells = (xTiles + tilesPerCell - 1) / tilesPerCell;
+        int yCells = (yTiles + tilesPerCell - 1) / tilesPerCell;
+
+        int nrOfLevels = 1;
+        for (int xs = Math.max(xCells, 1), ys = Math.max(yCells, 1); xs > 1 || ys > 1; nrOfLevels++) {
+            xs = (xs + 1) / 2;
+            ys = (ys + 1) / 2;
+        }
+
+        xSizes = new int[nrOfLevels];
+        ySizes = new int[nrOfLevels];
+        minima = new float[nrOfLevels][];
+        maxima = new float[nrOfLevels][];
+
+        int xSize = Math.max(xCells, 1);
+        int ySize = Math.max(yCells, 1);
+        for (int level = 0; level < nrOfLevels; level++) {
+            xSizes[level] = xSize;
+            ySizes[level] = ySize;
+            minima[level] = new float[xSize * ySize];
+            maxima[level] = new float[xSize * ySize];
+            Arrays.fill(minima[level], Float.POSITIVE_INFINITY);
+            Arrays.fill(maxima[level], Float.NEGATIVE_INFINITY);
+
+            xSize = (xSize + 1) / 2;
+            ySize = (ySize + 1) / 2;
+        }
+    }
+
+    /**
+     * sets the height range of a cell of the bottom level, without updating the levels above. Call {@link #rebuild()}
+     * after setting all cells.
+     */
+    void setLeaf(int x, int y, float min, float max) {
+        int index = x * ySizes[0] + y;
+        minima[0][index] = min;
+        maxima[0][index] = max;
+    }
+
+    /**
+     * extends the height range of the cell of the bottom level that contains tile (x, y) by the given range, without
+     * updating the levels above. Call {@link #rebuild()} after including all tiles.
+     */
+    void include(int x, int y, float min, float max) {
+        int index = (x / tilesPerCell) * ySizes[0] + (y / tilesPerCell);
+        minima[0][index] = Math.min(minima[0][index], min);
+        maxima[0][index] = Math.max(maxima[0][index], max);
+    }
+
+    /**
+     * recomputes all levels above the bottom level
+     */
+    void rebuild() {
+        for (int level = 1; level < xSizes.length; level++) {
+            for (int x = 0; x < xSizes[level]; x++) {
+                for (int y = 0; y < ySizes[level]; y++) {
+                    combine(level, x, y);
+                }
+            }
+        }
+    }
+
+    /**
+     * sets the height range of a cell of the bottom level, and updates all cells above it.
+     */
+    void update(int x, int y, float min, float max) {
+        setLeaf(x, y, min, max);
+
+        for (int level = 1; level < xSizes.length; level++) {
+            x /= 2;
+            y /= 2;
+            combine(level, x, y);
+        }
+    }
+
+    private void combine(int level, int x, int y) {
+        int below = level - 1;
+        int xBelow = Math.min(2 * x + 2, xSizes[below]);
+        int yBelow = Math.min(2 * y + 2, ySizes[below]);
+        float min = Float.POSITIVE_INFINITY;
+        float max = Float.NEGATIVE_INFINITY;
+
+        for (int cx = 2 * x; cx < xBelow; cx++) {
+            for (int cy = 2 * y; cy < yBelow; cy++) {
+                int index = cx * ySizes[below] + cy;
+                min = Math.min(min, minima[below][index]);
+                max = Math.max(max, maxima[below][index]);
+            }
+        }
+
+        int index = x * ySizes[level] + y;
+        minima[level][index] = min;
+        maxima[level][index] = max;
+    }
+
+    /** @return the number of tiles in both directions of a cell of the bottom level */
+    int getTilesPerCell() {
+        return tilesPerCell;
+    }
+
+    int getNrOfLevels() {
+        return xSizes.length;
+    }
+
+    int getXSize(int level) {
+        return xSizes[level];
+    }
+
+    int getYSize(int level) {
+        return ySizes[level];
+    }
+
+    float getMin(int level, int x, int y) {
+        return minima[level][x * ySizes[level] + y];
+    }
+
+    float getMax(int level, int x, int y) {
+        return maxima[level][x * ySizes[level] + y];
+    }
+
+    /**
+     * finds the first intersection of the ray {@code origin + t * direction} for {@code 0 <= t < 1} with the contents
+     * of the tiles. Cells are visited in the order in which the ray passes them, and regions of which the highest point
+     * lies below the ray are skipped entirely. Within a cell of the bottom level, the tiles crossed by the ray are tested
+     * in order.
+     * @param ray the ray to cast, as set by {@link Ray#set(Vector3fc, Vector3fc, TileIntersection)}
+     * @return the first fraction t in [0, 1) returned by the test of the ray, or 1 if there is none
+     */
+    float castRay(Ray ray) {
+        int top = xSizes.length - 1;
+
+        float t0 = Math.max(enterX(ray, top, 0), enterY(ray, top, 0));
+        float t1 = Math.min(exitX(ray, top, 0), exitY(ray, top, 0));
+        t0 = Math.max(t0, 0);
+        t1 = Math.min(t1, 1);
+        if (t0 > t1) return 1;
+
+        float result = descend(ray, top, 0, 0, t0, t1);
+        return result == MISS ? 1 : result;
+    }
+
+    /**
+     * @return the first intersection of the ray with cell (x, y) of the given level, where the ray is within the
+     * padded bounds of the cell for t0 <= t <= t1, or MISS if there is none
+     */
+    private float descend(Ray ray, int level, int x, int y, float t0, float t1) {
+        // the ray is lowest at one of the ends
+        float rayLow = ray.oz + ray.dz * (ray.dz < 0 ? t1 : t0);
+        if (rayLow > getMax(level, x, y)) return MISS;
+
+        if (level == 0) return walkTiles(ray, x, y, t0, t1);
+
+        // visit the children from near to far; a ray passes at most one of the two middle children, unless padded
+        int below = level - 1;
+        int nearX = ray.dx >= 0 ? 0 : 1;
+        int nearY = ray.dy >= 0 ? 0 : 1;
+
+        float result = child(ray, below, 2 * x + nearX, 2 * y + nearY, t0, t1);
+        if (result != MISS) return result;
+
+        int ax = 2 * x + (1 - nearX), ay = 2 * y + nearY;
+        int bx = 2 * x + nearX, by = 2 * y + (1 - nearY);
+        if (enterX(ray, below, ax) > enterY(ray, below, by)) {
+            int swap = ax; ax = bx; bx = swap;
+            swap = ay; ay = by; by = swap;
+        }
+
+        result = child(ray, below, ax, ay, t0, t1);
+        if (result != MISS) return result;
+
+        result = child(ray, below, bx, by, t0, t1);
+        if (result != MISS) return result;
+
+        return child(ray, below, 2 * x + (1 - nearX), 2 * y + (1 - nearY), t0, t1);
+    }
+
+    /**
+     * @return the first intersection of the ray with the tiles of cell (x, y) of the bottom level that it crosses for
+     * t0 <= t <= t1, or MISS if there is none
+     */
+    private float walkTiles(Ray ray, int x, int y, float t0, float t1) {
+        GridCursor cursor = ray.cursor;
+        cursor.set(
+                (ray.ox - xOrigin) / tileSize, (ray.oy - yOrigin) / tileSize,
+                ray.dx / tileSize, ray.dy / tileSize, t0, t1
+        );
+
+        int xFrom = x * tilesPerCell;
+        int yFrom = y * tilesPerCell;
+        boolean isInCell = cursor.clip(
+                xFrom, yFrom, Math.min(xFrom + tilesPerCell, xTiles), Math.min(yFrom + tilesPerCell, yTiles)
+        );
+        if (!isInCell) return MISS;
+
+        do {
+            float t = ray.test.intersect(ray.origin, ray.direction, cursor.getX(), cursor.getY());
+            if (t >= 0 && t < 1) return t;
+        } while (cursor.advance());
+
+        return MISS;
+    }
+
+    private float child(Ray ray, int level, int x, int y, float t0, float t1) {
+        if (x >= xSizes[level] || y >= ySizes[level]) return MISS;
+
+        float c0 = Math.max(t0, Math.max(enterX(ray, level, x), enterY(ray, level, y)));
+        float c1 = Math.min(t1, Math.min(exitX(ray, level, x), exitY(ray, level, y)));
+        if (c0 > c1) return MISS;
+
+        return descend(ray, level, x, y, c0, c1);
+    }
+
+    private float enterX(Ray ray, int level, int x) {
+        return slab(ray.ox, ray.dx, lower(level, x, xOrigin), upper(level, x, xOrigin, xTiles), true);
+    }
+
+    private float exitX(Ray ray, int level, int x) {
+        return slab(ray.ox, ray.dx, lower(level, x, xOrigin), upper(level, x, xOrigin, xTiles), false);
+    }
+
+    private float enterY(Ray ray, int level, int y) {
+        return slab(ray.oy, ray.dy, lower(level, y, yOrigin), upper(level, y, yOrigin, yTiles), true);
+    }
+
+    private float exitY(Ray ray, int level, int y) {
+        return slab(ray.oy, ray.dy, lower(level, y, yOrigin), upper(level, y, yOrigin, yTiles), false);
+    }
+
+    private float lower(int level, int i, float origin) {
+        return origin + (i << level) * tilesPerCell * tileSize - padding;
+    }
+
+    private float upper(int level, int i, float origin, int nrOfTiles) {
+        return origin + Math.min(((i + 1) << level) * tilesPerCell, nrOfTiles) * tileSize + padding;
+    }
+
+    /** @return the value of t where the ray enters or leaves the slab between low and high */
+    static float slab(float o, float d, float low, float high, boolean isEnter) {
+        if (d == 0) {
+            boolean isInside = o >= low && o <= high;
+            if (isEnter) return isInside ? Float.NEGATIVE_INFINITY : Float.POSITIVE_INFINITY;
+            return isInside ? Float.POSITIVE_INFINITY : Float.NEGATIVE_INFINITY;
+        }
+
+        float tLow = (low - o) / d;
+        float tHigh = (high - o) / d;
+        return isEnter == (d > 0) ? tLow : tHigh;
+    }
+
+    /**
+     * computes the intersection of a ray with the contents of one tile
+     */
+    interface TileIntersection {
+        /**
+         * @return the fraction t of the ray where it first hits the contents of tile (x, y), or {@link #MISS}
+         */
+        float intersect(Vector3fc origin, Vector3fc direction, int x, int y);
+    }
+
+    /**
+     * a ray to cast on a pyramid. Can be reused for any number of rays, but not concurrently.
+     */
+    static class Ray {
+        private final GridCursor cursor = new GridCursor();
+        private Vector3fc origin;
+        private Vector3fc direction;
+        private TileIntersection test;
+        private float ox, oy, oz, dx, dy, dz;
+
+        /**
+         * @param origin    the origin of the ray
+         * @param direction the direction of the ray, such that the ray ends at origin + direction
+         * @param test      computes the intersection of the ray with the contents of a tile
+         */
+        void set(Vector3fc origin, Vector3fc direction, TileIntersection test) {
+            this.origin = origin;
+            this.direction = direction;
+            this.test = test;
+            this.ox = origin.x();
+            this.oy = origin.y();
+            this.oz = origin.z();
+            this.dx = direction.x();
+            this.dy = direction.y();
+            this.dz = direction.z();
+        }
+    }
+}
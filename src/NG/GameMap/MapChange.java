@@ -0,0 +1,82 @@
+package NG.GameMap;
+
+/**
+ * A change of a map, as passed to {@link GameMap.ChangeListener}. A change covers a rectangle of map coordinates, which
+ * may be the entire map. Every change of a map has a higher version than the changes before it.
+ */
+public final class MapChange {
+    private final long version;
+    private final int xMin;
+    private final int yMin;
+    private final int xMax;
+    private final int yMax;
+
+    /**
+     * a change of all coordinates from (xMin, yMin) up to and including (xMax, yMax)
+     */
+    MapChange(long version, int xMin, int yMin, int xMax, int yMax) {
+        this.version = version;
+        this.xMin = xMin;
+        this.yMin = yMin;
+        this.xMax = xMax;
+        this.yMax = yMax;
+    }
+
+    /**
+     * a change of all coordinates of the map, for instance when a new map is generated
+     */
+    static MapChange entireMap(long version) {
+        return new MapChange(version, Integer.MIN_VALUE, Integer.MIN_VALUE, Integer.MAX_VALUE, Integer.MAX_VALUE);
+    }
+
+    /** @return the version of the map after this change */
+    public long getVersion() {
+        return version;
+    }
+
+    /** @return true if this change may affect any coordinate of the map */
+    public boolean isEntireMap() {
+        return xMin == Integer.MIN_VALUE && yMin == Integer.MIN_VALUE &&
+                xMax == Integer.MAX_VALUE && yMax == Integer.MAX_VALUE;
+    }
+
+    /** @return the lowest changed x coordinate */
+    public int getXMin() {
+        return xMin;
+    }
+
+    /** @return the lowest changed y coordinate */
+    public int getYMin() {
+        return yMin;
+    }
+
+    /** @return the highest changed x coordinate, inclusive */
+    public int getXMax() {
+        return xMax;
+    }
+
+    /** @return the highest changed y coordinate, inclusive */
+    public int getYMax() {
+        return yMax;
+    }
+
+    /**
+     * @return true if this change covers the given coordinate
+     */
+    public boolean contains(int x, int y) {
+        return x >= xMin && x <= xMax && y >= yMin && y <= yMax;
+    }
+
+    /**
+     * @return true if this change covers any coordinate from (xMin, yMin) up to and including (xMax, yMax)
+     */
+    public boolean intersects(int xMin, int yMin, int xMax, int yMax) {
+        return xMin <= this.xMax && xMax >= this.xMin && yMin <= this.yMax && yMax >= this.yMin;
+    }
+
+    @Override
+    public String toString() {
+        if (isEntireMap()) return "MapChange(v" + version + ", entire map)";
+        return String.format("MapChange(v%d, (%d, %d) to (%d, %d))", version, xMin, yMin, xMax, yMax);
+    }
+}
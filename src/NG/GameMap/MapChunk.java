@@ -1,6 +1,7 @@
 package NG.GameMap;
 
 import NG.Core.GameTimer;
+import NG.DataStructures.Generic.Direction;
 import NG.Rendering.MatrixStack.SGL;
 
 import java.io.DataInputStream;
@@ -19,6 +20,50 @@ public interface MapChunk {
      */
     MapTile.Instance get(int x, int y);
 
+    /**
+     * returns the type of a tile. Unlike {@link #get(int, int)}, the accessors of single properties of a tile never
+     * create objects.
+     * @param x the x coordinate relative to this chunk
+     * @param y the y coordinate relative to this chunk
+     * @return the type of the tile on the given coordinate, or null if there is none
+     */
+    default MapTile getType(int x, int y) {
+        MapTile.Instance tile = get(x, y);
+        return tile == null ? null : tile.type;
+    }
+
+    /**
+     * @param x the x coordinate relative to this chunk
+     * @param y the y coordinate relative to this chunk
+     * @return the height offset of the tile on the given coordinate, or 0 if there is none
+     */
+    default int getOffset(int x, int y) {
+        MapTile.Instance tile = get(x, y);
+        return tile == null ? 0 : tile.offset;
+    }
+
+    /**
+     * @param x the x coordinate relative to this chunk
+     * @param y the y coordinate relative to this chunk
+     * @return the number of quarter rotations of the tile on the given coordinate, or 0 if there is none
+     */
+    default int getRotation(int x, int y) {
+        MapTile.Instance tile = get(x, y);
+        return tile == null ? 0 : tile.rotation;
+    }
+
+    /**
+     * @param x         the x coordinate relative to this chunk
+     * @param y         the y coordinate relative to this chunk
+     * @param direction the side of the tile, or NONE for the middle
+     * @return the height of the tile on the middle of the given side, or 0 if there is no tile
+     * @see MapTile.Instance#heightOf(Direction)
+     */
+    default int heightOf(int x, int y, Direction direction) {
+        MapTile.Instance tile = get(x, y);
+        return tile == null ? 0 : tile.heightOf(direction);
+    }
+
     /**
      * sets a given position to a new tile
      * @param x the x coordinate relative to this chunk
@@ -0,0 +1,322 @@
+package NG.GameMap;
+
+import NG.DataStructures.Generic.Color4f;
+import NG.DataStructures.Generic.Direction;
+import NG.Rendering.Material;
+import NG.Rendering.MatrixStack.SGL;
+import NG.Rendering.Shaders.MaterialShader;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.IntBuffer;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Map;
+import java.util.Random;
+
+import static NG.Settings.Settings.TILE_SIZE;
+import static NG.Settings.Settings.TILE_SIZE_Z;
+
+/**
+ * A chunk that stores each tile as a single int, instead of a {@link MapTile.Instance} object. The int holds the tile
+ * id in the lowest 16 bits, the rotation in the next 8 bits and the signed offset in the highest 8 bits. The tile type
+ * is looked up with {@link MapTile#getById(int)}. Tiles are stored in a single array in x-major order, such that
+ * neighbouring tiles are adjacent in memory.
+ * <p>
+ * {@link #get(int, int)} returns a new instance on every call, thus instances of this chunk can not be compared by
+ * identity. Hot paths should use the accessors of single properties instead, which do not allocate.
+ */
+public class MapChunkPacked implements MapChunk {
+    private static final int NO_TILE = 0xFFFF;
+    private static final int EMPTY = pack(0, 0, NO_TILE);
+    /** the tile id written to a stream for an empty tile */
+    private static final int EMPTY_ID = -1;
+
+    private final int[] tiles;
+    private final int size;
+    private final BitSet highlights;
+    private boolean doHighlight;
+
+    private Extremes minimumMaximum = new Extremes();
+
+    /**
+     * creates an empty chunk, to be filled with {@link #set(int, int, MapTile.Instance)} or {@link
+     * #readFromStream(DataInputStream, Map)}
+     * @param size the number of tiles in both x and y direction
+     */
+    public MapChunkPacked(int size) {
+        this.size = size;
+        this.tiles = new int[size * size];
+        this.highlights = new BitSet();
+        Arrays.fill(tiles, EMPTY);
+    }
+
+    /**
+     * creates a chunk of random tiles that fit the given heightmap. For the same arguments, this results in the same
+     * tiles as {@link MapChunkArray#MapChunkArray(int, float[][], int, int, int)}
+     */
+    public MapChunkPacked(int size, float[][] heightmap, int fromX, int fromY, int randomSeed) {
+        this(size);
+        Random random = new Random(randomSeed);
+
+        for (int cx = 0; cx < size; cx++) {
+            int hx = fromX + cx;
+
+            float[] xHeight = heightmap[hx];
+            float[] x2Height = heightmap[hx + 1];
+
+            for (int cy = 0; cy < size; cy++) {
+                int hy = fromY + cy;
+
+                int pos_pos = (int) x2Height[hy + 1];
+                int pos_neg = (int) xHeight[hy + 1];
+                int neg_neg = (int) xHeight[hy];
+                int neg_pos = (int) x2Height[hy];
+
+                setRandomTile(random, cx, cy, pos_pos, pos_neg, neg_neg, neg_pos);
+            }
+        }
+    }
+
+    /**
+     * creates a chunk of random tiles that fit the given corner heights, as generated by {@link
+     * MapGenerator#generateChunk(int, int, int, float[])}. This results in the same tiles as {@link
+     * #MapChunkPacked(int, float[][], int, int, int)} on a heightmap with the same heights.
+     * @param size    the number of tiles in both x and y direction
+     * @param corners the (size + 1) * (size + 1) corner heights, in x-major order
+     */
+    public MapChunkPacked(int size, float[] corners, int randomSeed) {
+        this(size);
+        Random random = new Random(randomSeed);
+        int stride = size + 1;
+
+        for (int cx = 0; cx < size; cx++) {
+            int xRow = cx * stride;
+            int x2Row = xRow + stride;
+
+            for (int cy = 0; cy < size; cy++) {
+                int pos_pos = (int) corners[x2Row + cy + 1];
+                int pos_neg = (int) corners[xRow + cy + 1];
+                int neg_neg = (int) corners[xRow + cy];
+                int neg_pos = (int) corners[x2Row + cy];
+
+                setRandomTile(random, cx, cy, pos_pos, pos_neg, neg_neg, neg_pos);
+            }
+        }
+    }
+
+    private void setRandomTile(Random random, int cx, int cy, int pos_pos, int pos_neg, int neg_neg, int neg_pos) {
+        MapTile.Instance randTile = MapTiles.getRandomOf(random, pos_pos, pos_neg, neg_neg, neg_pos);
+        minimumMaximum.check(randTile.getHeight() * TILE_SIZE_Z);
+
+        tiles[cx * size + cy] = pack(randTile);
+    }
+
+    @Override
+    public MapTile.Instance get(int x, int y) {
+        int tile = tiles[index(x, y)];
+        if (tile == EMPTY) return null;
+
+        return new MapTile.Instance(offsetOf(tile), rotationOf(tile), typeOf(tile));
+    }
+
+    @Override
+    public MapTile getType(int x, int y) {
+        int tile = tiles[index(x, y)];
+        return tile == EMPTY ? null : typeOf(tile);
+    }
+
+    @Override
+    public int getOffset(int x, int y) {
+        int tile = tiles[index(x, y)];
+        return tile == EMPTY ? 0 : offsetOf(tile);
+    }
+
+    @Override
+    public int getRotation(int x, int y) {
+        int tile = tiles[index(x, y)];
+        return tile == EMPTY ? 0 : rotationOf(tile);
+    }
+
+    @Override
+    public int heightOf(int x, int y, Direction direction) {
+        int tile = tiles[index(x, y)];
+        if (tile == EMPTY) return 0;
+
+        return typeOf(tile).heightOf(offsetOf(tile), rotationOf(tile), direction);
+    }
+
+    @Override
+    public MapTile set(int x, int y, MapTile.Instance tile) {
+        int index = index(x, y);
+        int prev = tiles[index];
+        tiles[index] = pack(tile);
+        minimumMaximum.check(tile.getHeight() * TILE_SIZE_Z);
+        return prev == EMPTY ? null : typeOf(prev);
+    }
+
+    @Override
+    public int getHeightAt(int x, int y) {
+        int tile = tiles[index(x, y)];
+        if (tile == EMPTY) return 0;
+
+        return offsetOf(tile) + typeOf(tile).baseHeight;
+    }
+
+    private int index(int x, int y) {
+        if (x < 0 || y < 0 || x >= size || y >= size) {
+            throw new IndexOutOfBoundsException("(" + x + ", " + y + "), size is " + size);
+        }
+        return x * size + y;
+    }
+
+    @Override
+    public void draw(SGL gl) {
+        MaterialShader mShader = null;
+        if (gl.getShader() instanceof MaterialShader) {
+            mShader = (MaterialShader) gl.getShader();
+        }
+        boolean anyHighlight = doHighlight && mShader != null && !highlights.isEmpty();
+
+        int i = 0;
+        for (int x = 0; x < size; x++) {
+            for (int y = 0; y < size; y++, i++) {
+                int tile = tiles[i];
+
+                if (tile != EMPTY) {
+                    boolean highlightThis = anyHighlight && highlights.get(i);
+
+                    if (highlightThis) {
+                        mShader.setMaterial(Material.ROUGH, Color4f.WHITE);
+                    }
+
+                    typeOf(tile).draw(gl, offsetOf(tile), rotationOf(tile));
+
+                    if (highlightThis) {
+                        mShader.setMaterial(Material.ROUGH, new Color4f(85, 153, 0, 1));
+                    }
+                }
+
+                gl.translate(0, TILE_SIZE, 0);
+            }
+
+            gl.translate(0, -TILE_SIZE * size, 0);
+            gl.translate(TILE_SIZE, 0, 0);
+        }
+        gl.translate(-TILE_SIZE * size, 0, 0);
+    }
+
+    @Override
+    public void highlight(int x, int y) {
+        highlights.set(index(x, y));
+    }
+
+    @Override
+    public void clearHighlight() {
+        highlights.clear();
+    }
+
+    @Override
+    public void setHighlight(boolean doHighlight) {
+        this.doHighlight = doHighlight;
+    }
+
+    @Override
+    public void writeToStream(DataOutputStream out) throws IOException {
+        // same format as MapChunkArray, which has no empty tiles
+        for (int tile : tiles) {
+            out.writeInt(tile == EMPTY ? EMPTY_ID : typeOf(tile).tileID);
+            out.writeByte(rotationOf(tile));
+            out.writeByte(offsetOf(tile));
+        }
+    }
+
+    @Override
+    public void readFromStream(DataInputStream in, Map<Integer, MapTile> mapping) throws IOException {
+        for (int i = 0; i < tiles.length; i++) {
+            int typeID = in.readInt();
+            byte rotation = in.readByte();
+            byte offset = in.readByte();
+
+            if (typeID == EMPTY_ID) {
+                tiles[i] = EMPTY;
+                continue;
+            }
+
+            MapTile type = mapping.get(typeID);
+            if (type == null) throw new IOException("Unknown tile id " + typeID);
+
+            tiles[i] = pack(offset, rotation, type.tileID);
+            minimumMaximum.check((offset + type.baseHeight) * TILE_SIZE_Z);
+        }
+    }
+
+    /**
+     * writes the tiles of the given chunk in packed format to the target, in x-major order
+     * @param chunk  any chunk
+     * @param size   the size of the chunk
+     * @param target a buffer with room for size * size tiles
+     */
+    static void writePacked(MapChunk chunk, int size, IntBuffer target) {
+        if (chunk instanceof MapChunkPacked) {
+            target.put(((MapChunkPacked) chunk).tiles);
+            return;
+        }
+
+        for (int x = 0; x < size; x++) {
+            for (int y = 0; y < size; y++) {
+                MapTile.Instance tile = chunk.get(x, y);
+                target.put(tile == null ? EMPTY : pack(tile));
+            }
+        }
+    }
+
+    /**
+     * reads all tiles of this chunk from a buffer written by {@link #writePacked(MapChunk, int, IntBuffer)}
+     * @param source    the buffer to read from
+     * @param idMapping maps the tile ids of the source to the current tile ids
+     * @throws IOException if the source contains an unknown tile id
+     */
+    void readPacked(IntBuffer source, int[] idMapping) throws IOException {
+        source.get(tiles);
+
+        for (int i = 0; i < tiles.length; i++) {
+            int tile = tiles[i];
+            if (tile == EMPTY) continue;
+
+            int fileID = tile & 0xFFFF;
+            int tileID = (fileID < idMapping.length) ? idMapping[fileID] : -1;
+            if (tileID < 0) throw new IOException("Unknown tile id " + fileID);
+
+            tile = (tile & 0xFFFF0000) | tileID;
+            tiles[i] = tile;
+            minimumMaximum.check((offsetOf(tile) + typeOf(tile).baseHeight) * TILE_SIZE_Z);
+        }
+    }
+
+    @Override
+    public Extremes getMinMax() {
+        return minimumMaximum;
+    }
+
+    private static int pack(MapTile.Instance tile) {
+        return pack(tile.offset, tile.rotation, tile.type.tileID);
+    }
+
+    private static int pack(int offset, int rotation, int tileID) {
+        return (offset << 24) | ((rotation & 0xFF) << 16) | (tileID & 0xFFFF);
+    }
+
+    private static int offsetOf(int tile) {
+        return tile >> 24; // sign-extends
+    }
+
+    private static int rotationOf(int tile) {
+        return (tile >>> 16) & 0xFF;
+    }
+
+    private static MapTile typeOf(int tile) {
+        return MapTile.getById(tile & 0xFFFF);
+    }
+}
@@ -0,0 +1,202 @@
+package NG.GameMap;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A binary map file that is accessed through memory mapping. The file consists of
+ * <ol>
+ * <li>a fixed preamble: the magic number, the format version, the map type and the offset of the payload</li>
+ * <li>a header specific to the map type, in the format of {@link java.io.DataOutputStream}</li>
+ * <li>the payload, starting at a multiple of {@link #ALIGNMENT} bytes, in little-endian byte order</li>
+ * </ol>
+ * The payload is laid out by the map type, such that every chunk of the map is one contiguous region that can be
+ * transferred with a single bulk get or put.
+ * <p>
+ * This format is an alternative to {@link NG.Storable}, meant for large maps.
+ * @see BlockMap#writeToFile(Path)
+ * @see TileMap#writeToFile(Path)
+ */
+final class MapFile implements Closeable {
+    static final int MAGIC = 0x4E474D46; // NGMF
+    static final short VERSION = 1;
+    static final byte BLOCK_MAP = 1;
+    static final byte TILE_MAP = 2;
+    /** alignment of the payload in bytes */
+    static final int ALIGNMENT = 64;
+
+    private static final int PREAMBLE_SIZE = 12;
+    /** largest size of a single mapping */
+    private static final long MAX_WINDOW = 1L << 30;
+
+    private final FileChannel channel;
+    private final FileChannel.MapMode mode;
+    private final long payloadStart;
+    private final long payloadSize;
+    private final byte[] header;
+
+    private MappedByteBuffer window = null;
+    private long windowStart = 0;
+    private long windowEnd = 0;
+
+    private MapFile(
+            FileChannel channel, FileChannel.MapMode mode, long payloadStart, long payloadSize, byte[] header
+    ) {
+        this.channel = channel;
+        this.mode = mode;
+        this.payloadStart = payloadStart;
+        this.payloadSize = payloadSize;
+        this.header = header;
+    }
+
+    /**
+     * creates a new map file, replacing any existing file, and writes the preamble and the given header.
+     * @param file        the file to write
+     * @param type        the map type, {@link #BLOCK_MAP} or {@link #TILE_MAP}
+     * @param header      the type-specific header
+     * @param payloadSize the number of bytes of payload that will be written
+     * @return the file, ready for writing the payload using {@link #payload(long, int)}
+     */
+    static MapFile create(Path file, byte type, byte[] header, long payloadSize) throws IOException {
+        long payloadStart = align(PREAMBLE_SIZE + header.length);
+
+        FileChannel channel = FileChannel.open(file,
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.READ, StandardOpenOption.WRITE
+        );
+
+        try {
+            ByteBuffer start = ByteBuffer.allocate((int) payloadStart);
+            start.putInt(MAGIC);
+            start.putShort(VERSION);
+            start.put(type);
+            start.put((byte) 0);
+            start.putInt((int) payloadStart);
+            start.put(header);
+            start.rewind();
+
+            while (start.hasRemaining()) {
+                channel.write(start);
+            }
+
+        } catch (IOException ex) {
+            channel.close();
+            throw ex;
+        }
+
+        return new MapFile(channel, FileChannel.MapMode.READ_WRITE, payloadStart, payloadSize, header);
+    }
+
+    /**
+     * opens an existing map file for reading
+     * @param file         the file to read
+     * @param expectedType the expected map type
+     * @return the file, of which the header can be read using {@link #header()}
+     * @throws IOException if the file is not a map file of the given type, or has an unsupported version
+     */
+    static MapFile open(Path file, byte expectedType) throws IOException {
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+
+        try {
+            ByteBuffer preamble = ByteBuffer.allocate(PREAMBLE_SIZE);
+            readFully(channel, preamble, 0);
+            preamble.flip();
+
+            if (preamble.getInt() != MAGIC) throw new IOException(file + " is not a map file");
+
+            short version = preamble.getShort();
+            if (version != VERSION) throw new IOException("Unsupported map file version " + version);
+
+            byte type = preamble.get();
+            if (type != expectedType) {
+                throw new IOException("Expected map type " + expectedType + " but found " + type);
+            }
+
+            preamble.get(); // reserved
+            int payloadStart = preamble.getInt();
+            if (payloadStart < PREAMBLE_SIZE || payloadStart > channel.size()) {
+                throw new IOException("Invalid payload offset " + payloadStart);
+            }
+
+            ByteBuffer header = ByteBuffer.allocate(payloadStart - PREAMBLE_SIZE);
+            readFully(channel, header, PREAMBLE_SIZE);
+
+            long payloadSize = channel.size() - payloadStart;
+            return new MapFile(channel, FileChannel.MapMode.READ_ONLY, payloadStart, payloadSize, header.array());
+
+        } catch (IOException ex) {
+            channel.close();
+            throw ex;
+        }
+    }
+
+    /**
+     * @return a stream of the type-specific header
+     */
+    DataInputStream header() {
+        return new DataInputStream(new ByteArrayInputStream(header));
+    }
+
+    /**
+     * returns a little-endian view on a region of the payload. The view is backed by the file; for a file opened with
+     * {@link #create(Path, byte, byte[], long)}, writes to the view are written to the file.
+     * @param offset the offset in bytes relative to the start of the payload
+     * @param length the length of the region in bytes
+     * @return a buffer of exactly the given length
+     * @throws IOException if the region lies outside the payload
+     */
+    ByteBuffer payload(long offset, int length) throws IOException {
+        if (offset < 0 || offset + length > payloadSize) {
+            throw new IOException(String.format(
+                    "Region [%d, %d) is outside the payload of %d bytes", offset, offset + length, payloadSize
+            ));
+        }
+
+        if (window == null || offset < windowStart || offset + length > windowEnd) {
+            if (window != null && mode == FileChannel.MapMode.READ_WRITE) window.force();
+
+            long end = Math.min(payloadSize, offset + Math.max(MAX_WINDOW, length));
+            window = channel.map(mode, payloadStart + offset, end - offset);
+            windowStart = offset;
+            windowEnd = end;
+        }
+
+        int position = (int) (offset - windowStart);
+        return window.duplicate()
+                .position(position)
+                .limit(position + length)
+                .slice()
+                .order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (window != null && mode == FileChannel.MapMode.READ_WRITE) {
+            window.force();
+        }
+        window = null;
+        channel.close();
+    }
+
+    /**
+     * @return the smallest multiple of {@link #ALIGNMENT} that is at least the given position
+     */
+    static long align(long position) {
+        return (position + ALIGNMENT - 1) / ALIGNMENT * ALIGNMENT;
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer target, long position) throws IOException {
+        while (target.hasRemaining()) {
+            int read = channel.read(target, position + target.position());
+            if (read < 0) throw new IOException("Unexpected end of file");
+        }
+    }
+}
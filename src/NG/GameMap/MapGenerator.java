@@ -1,5 +1,7 @@
 package NG.GameMap;
 
+import org.joml.Vector2ic;
+
 import java.util.Map;
 
 /**
@@ -21,6 +23,46 @@ public interface MapGenerator {
      */
     float[][] generateHeightMap();
 
+    /**
+     * generates the heights of the corners of the tiles of one chunk. The result does only depend on the seed, the
+     * properties and the given coordinates, and not on the size of this generator. Where both are supported, the height
+     * of a coordinate equals that of the map returned by {@link #generateHeightMap()}.
+     * @param cx   the x coordinate of the chunk, which may be negative
+     * @param cy   the y coordinate of the chunk, which may be negative
+     * @param size the number of tiles of the chunk in both directions
+     * @param dest an array of at least (size + 1) * (size + 1) elements. The height of coordinate (cx * size + i, cy *
+     *             size + j) is written to {@code dest[i * (size + 1) + j]} for i and j in [0, size].
+     * @throws UnsupportedOperationException if this generator can only generate the whole map
+     * @see #canGenerateChunks()
+     */
+    default void generateChunk(int cx, int cy, int size, float[] dest) {
+        throw new UnsupportedOperationException(getClass().getSimpleName() + " can not generate chunks");
+    }
+
+    /**
+     * @return true if this generator supports {@link #generateChunk(int, int, int, float[])} and {@link #getSize()}
+     * @implNote default returns false
+     */
+    default boolean canGenerateChunks() {
+        return false;
+    }
+
+    /**
+     * @return the size of the map returned by {@link #generateHeightMap()}, without generating it
+     * @throws UnsupportedOperationException if the size is only known after generating the map
+     */
+    default Vector2ic getSize() {
+        throw new UnsupportedOperationException(getClass().getSimpleName() + " has no size before generating");
+    }
+
+    /**
+     * @return the fraction of the current or last call to {@link #generateHeightMap()} that has been completed, in [0,
+     * 1]. May be called from any thread.
+     */
+    default float getProgress() {
+        return 0;
+    }
+
     /**
      * @return the seed used to create the map
      */
@@ -19,6 +19,7 @@ import org.joml.Vector3fc;
 
 import java.io.IOException;
 import java.nio.file.Path;
+import java.util.Arrays;
 import java.util.EnumSet;
 import java.util.Random;
 
@@ -31,9 +32,13 @@ import static NG.Settings.Settings.TILE_SIZE_Z;
  * @see Instance
  */
 public class MapTile {
-    public static final MapTile DEFAULT_TILE = new MapTile();
+    /** the largest number of tile types, such that an id fits in an unsigned short */
+    public static final int MAX_TILES = 0xFFFF;
+    // tiles indexed by id. Must be initialized before the default tile
+    private static volatile MapTile[] registry = new MapTile[64];
+    private static int nrOfTiles = 0;
 
-    private static int nextIdentity = 0; // basic tile has id 0
+    public static final MapTile DEFAULT_TILE = new MapTile(); // basic tile has id 0
 
     public final String name;
     public final int tileID;
@@ -66,7 +71,7 @@ public class MapTile {
         this.name = name;
         this.texturePath = texture;
         this.sourceSet = sourceSet;
-        this.tileID = nextIdentity++;
+        this.tileID = register(this);
         // the order is important
         this.fit = MapTiles.createRFF(heights[0], heights[2], heights[4], heights[6]);// pp, pn, nn, np
         this.properties = properties;
@@ -84,7 +89,7 @@ public class MapTile {
         this.name = "default";
         this.texturePath = null;
         this.sourceSet = null;
-        this.tileID = nextIdentity++;
+        this.tileID = register(this);
         this.fit = MapTiles.createRFF(1, 1, 1, 1);// pp, pn, nn, np
         this.properties = EnumSet.noneOf(TileProperties.class);
         this.heights = new int[]{1, 1, 1, 1, 1, 1, 1, 1};
@@ -95,6 +100,30 @@ public class MapTile {
         this.shape = new BasicShape(meshFile);
     }
 
+    private static synchronized int register(MapTile tile) {
+        if (nrOfTiles == MAX_TILES) throw new IllegalStateException("Too many tile types");
+
+        MapTile[] table = registry;
+        if (nrOfTiles == table.length) {
+            table = Arrays.copyOf(table, table.length * 2);
+        }
+        table[nrOfTiles] = tile;
+        registry = table;
+
+        return nrOfTiles++;
+    }
+
+    /**
+     * @param tileID the {@link #tileID} of a tile
+     * @return the tile with the given id
+     * @throws ArrayIndexOutOfBoundsException if no tile with the given id exists
+     */
+    public static MapTile getById(int tileID) {
+        MapTile tile = registry[tileID];
+        if (tile == null) throw new ArrayIndexOutOfBoundsException(tileID);
+        return tile;
+    }
+
     public int orientationBits() {
         return fit.id;
     }
@@ -122,6 +151,110 @@ public class MapTile {
         }
     }
 
+    /**
+     * draws an instance of this tile
+     * @param gl       the graphics object, positioned at the center of the tile
+     * @param offset   the height offset of the instance
+     * @param rotation the number of quarter rotations of the instance
+     */
+    void draw(SGL gl, int offset, int rotation) {
+        gl.pushMatrix();
+        {
+            gl.translate(0, 0, offset * TILE_SIZE_Z);
+            gl.rotateQuarter(0, 0, rotation);
+
+            if (mesh == null) {
+                loadMesh();
+            }
+
+            ShaderProgram shader = gl.getShader();
+            if (texture != null && shader instanceof TextureShader) {
+                TextureShader tShader = (TextureShader) shader;
+                tShader.setTexture(texture);
+            }
+
+            gl.render(mesh, null);
+        }
+        gl.popMatrix();
+    }
+
+    /**
+     * @param offset    the height offset of an instance of this tile
+     * @param rotation  the non-negative number of quarter rotations of the instance
+     * @param direction the side of the tile, or NONE for the middle
+     * @return the height of the instance on the middle of the given side
+     * @see Instance#heightOf(Direction)
+     */
+    int heightOf(int offset, int rotation, Direction direction) {
+        if (direction == Direction.NONE) return offset + baseHeight;
+
+        return heightOfInd(offset, rotation, index(direction));
+    }
+
+    /**
+     * @param offset   the height offset of an instance of this tile
+     * @param rotation the non-negative number of quarter rotations of the instance
+     * @return the height of the instance on the given corner
+     * @see Instance#heightOfCorner(boolean, boolean)
+     */
+    int heightOfCorner(int offset, int rotation, boolean positiveX, boolean positiveY) {
+        int hInd;
+        if (positiveX && positiveY) {// pp, pm, pn, mn, nn, nm, np, mp
+            hInd = 0;
+        } else if (positiveX) {
+            hInd = 2;
+        } else if (positiveY) {
+            hInd = 4;
+        } else {
+            hInd = 6;
+        }
+
+        return heightOfInd(offset, rotation, hInd);
+    }
+
+    private int heightOfInd(int offset, int rotation, int hInd) {
+        int shift = rotation * 2;
+        int index = (16 - (shift + hInd)) % 8;
+        return offset + heights[index]; // heights array replaces baseheight
+    }
+
+    /**
+     * calculates the fraction t such that (origin + direction * t) lies on an instance of this tile, or
+     * Float.POSITIVE_INFINITY if it does not hit. Only a ray that hits the bounding box of the instance creates objects.
+     * @param tx       the real x position of the middle of the instance
+     * @param ty       the real y position of the middle of the instance
+     * @param offset   the height offset of the instance
+     * @param rotation the non-negative number of quarter rotations of the instance
+     * @param origin   a local origin of a ray
+     * @param dir      the direction of the ray
+     * @return fraction t of (origin + direction * t), or Float.POSITIVE_INFINITY if it does not hit.
+     * @see Instance#intersectFraction(Vector2fc, Vector3fc, Vector3fc)
+     */
+    public float intersectFraction(float tx, float ty, int offset, int rotation, Vector3fc origin, Vector3fc dir) {
+        // translation
+        float ox = origin.x() - tx;
+        float oy = origin.y() - ty;
+        float oz = origin.z() - offset * TILE_SIZE_Z;
+
+        boolean doIntersect = shape.getBoundingBox().testRay(ox, oy, oz, dir.x(), dir.y(), dir.z());
+        if (!doIntersect) return Float.POSITIVE_INFINITY;
+
+        // rotation
+        float dx = dir.x();
+        float dy = dir.y();
+        for (int i = 0; i < rotation; i++) {
+            float t = ox;
+            ox = oy;
+            oy = -t;
+
+            t = dx;
+            dx = dy;
+            dy = -t;
+        }
+
+        return shape.getIntersectionScalar(new Vector3f(ox, oy, oz), new Vector3f(dx, dy, dir.z()));
+    }
+
     public static int index(Direction direction) {
         switch (direction) { // pp, pm, pn, mn, nn, nm, np, mp
             case POSITIVE_X:
@@ -155,24 +288,7 @@ public class MapTile {
         }
 
         public void draw(SGL gl) {
-            gl.pushMatrix();
-            {
-                gl.translate(0, 0, offset * TILE_SIZE_Z);
-                gl.rotateQuarter(0, 0, rotation);
-
-                if (type.mesh == null) {
-                    type.loadMesh();
-                }
-
-                ShaderProgram shader = gl.getShader();
-                if (type.texture != null && shader instanceof TextureShader) {
-                    TextureShader tShader = (TextureShader) shader;
-                    tShader.setTexture(type.texture);
-                }
-
-                gl.render(type.mesh, null);
-            }
-            gl.popMatrix();
+            type.draw(gl, offset, rotation);
         }
 
         public Instance replaceWith(MapTile newType) {
@@ -182,30 +298,11 @@ public class MapTile {
         }
 
         public int heightOf(Direction direction) {
-            if (direction == Direction.NONE) return getHeight();
-
-            return heightOfInd(index(direction));
+            return type.heightOf(offset, rotation, direction);
         }
 
         public int heightOfCorner(boolean positiveX, boolean positiveY) {
-            int hInd;
-            if (positiveX && positiveY) {// pp, pm, pn, mn, nn, nm, np, mp
-                hInd = 0;
-            } else if (positiveX) {
-                hInd = 2;
-            } else if (positiveY) {
-                hInd = 4;
-            } else {
-                hInd = 6;
-            }
-
-            return heightOfInd(hInd);
-        }
-
-        private int heightOfInd(int hInd) {
-            int shift = rotation * 2;
-            int index = (16 - (shift + hInd)) % 8;
-            return offset + type.heights[index]; // heights array replaces baseheight
+            return type.heightOfCorner(offset, rotation, positiveX, positiveY);
         }
 
         public int getHeight() {
@@ -222,33 +319,7 @@ public class MapTile {
          * @return fraction t of (origin + direction * t), or Float.POSITIVE_INFINITY if it does not hit.
          */
         public float intersectFraction(Vector2fc tilePosition, Vector3fc origin, Vector3fc dir) {
-            // apply position and rotation elements of the tile
-            // translation
-            Vector3f localOrigin = new Vector3f(
-                    origin.x() - tilePosition.x(),
-                    origin.y() - tilePosition.y(),
-                    origin.z() - offset * TILE_SIZE_Z
-            );
-
-            boolean doIntersect = type.shape.getBoundingBox().testRay(
-                    localOrigin.x, localOrigin.y, localOrigin.z,
-                    dir.x(), dir.y(), dir.z()
-            );
-
-            if (!doIntersect) {
-                return Float.POSITIVE_INFINITY;
-            }
-
-            // rotation
-            Vector3f localDirection = new Vector3f(dir);
-            for (byte i = 0; i < rotation; i++) {
-                //noinspection SuspiciousNameCombination
-                localOrigin.set(localOrigin.y, -localOrigin.x, localOrigin.z);
-                //noinspection SuspiciousNameCombination
-                localDirection.set(localDirection.y, -localDirection.x, localDirection.z);
-            }
-
-            return type.shape.getIntersectionScalar(localOrigin, localDirection);
+            return type.intersectFraction(tilePosition.x(), tilePosition.y(), offset, rotation, origin, dir);
         }
     }
 }
@@ -1,9 +1,14 @@
 package NG.GameMap;
 
 import NG.Tools.OpenSimplexNoise;
+import org.joml.Vector2i;
+import org.joml.Vector2ic;
 
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
 
 /**
  * @author Geert van Ieperen. Created on 27-9-2018.
@@ -16,7 +21,7 @@ public class OpenSimplexMapGenerator implements MapGenerator {
     private static final String MAJOR_AMPLITUDE = "Major amplitude";
     private static final String MINOR_AMPLITUDE = "Minor amplitude";
 
-    private float progress = 0;
+    private final AtomicInteger rowsDone = new AtomicInteger();
     private int seed;
     private int width;
     private int height;
@@ -39,31 +44,61 @@ public class OpenSimplexMapGenerator implements MapGenerator {
         return properties;
     }
 
+    /**
+     * {@inheritDoc} The rows of the map are generated in parallel, with all noise layers of a row in a single pass. The
+     * result does not depend on the number of threads.
+     */
     @Override
     public float[][] generateHeightMap() {
-        float[][] map = new float[width][height];
+        float[][] map = new float[width][];
+        rowsDone.set(0);
 
         double majorAmplitude = properties.get(MAJOR_AMPLITUDE) * AMPLITUDE_SCALE_FACTOR;
-        addNoiseLayer(map, majorGenerator, MAJOR_DENSITY, majorAmplitude);
-        progress = 0.5f;
-
         double minorAmplitude = properties.get(MINOR_AMPLITUDE) * AMPLITUDE_SCALE_FACTOR;
-        addNoiseLayer(map, minorGenerator, MINOR_DENSITY, minorAmplitude);
-        progress = 1;
+
+        IntStream.range(0, width).parallel().forEach(x -> {
+            float[] row = new float[height];
+            // the layers are summed in the same order and precision as adding one layer at a time
+            majorGenerator.addRow(row, 0, height, x, 0, MAJOR_DENSITY, majorAmplitude);
+            minorGenerator.addRow(row, 0, height, x, 0, MINOR_DENSITY, minorAmplitude);
+            map[x] = row;
+            rowsDone.incrementAndGet();
+        });
 
         return map;
     }
 
-    private void addNoiseLayer(
-            float[][] map, OpenSimplexNoise noise, double density, double amplitude
-    ) {
-        for (int x = 0; x < width; x++) {
-            for (int y = 0; y < height; y++) {
-                map[x][y] += (float) (amplitude * noise.eval(x * density, y * density));
-            }
+    @Override
+    public void generateChunk(int cx, int cy, int size, float[] dest) {
+        int stride = size + 1;
+        Arrays.fill(dest, 0, stride * stride, 0);
+
+        double majorAmplitude = properties.get(MAJOR_AMPLITUDE) * AMPLITUDE_SCALE_FACTOR;
+        double minorAmplitude = properties.get(MINOR_AMPLITUDE) * AMPLITUDE_SCALE_FACTOR;
+        int xFrom = cx * size;
+        int yFrom = cy * size;
+
+        for (int i = 0; i < stride; i++) {
+            majorGenerator.addRow(dest, i * stride, stride, xFrom + i, yFrom, MAJOR_DENSITY, majorAmplitude);
+            minorGenerator.addRow(dest, i * stride, stride, xFrom + i, yFrom, MINOR_DENSITY, minorAmplitude);
         }
     }
 
+    @Override
+    public boolean canGenerateChunks() {
+        return true;
+    }
+
+    @Override
+    public Vector2ic getSize() {
+        return new Vector2i(width, height);
+    }
+
+    @Override
+    public float getProgress() {
+        return width == 0 ? 0 : (float) rowsDone.get() / width;
+    }
+
     @Override
     public int getMapSeed() {
         return seed;
@@ -2,14 +2,20 @@ package NG.GameMap;
 
 import NG.Camera.Camera;
 import NG.CollisionDetection.BoundingBox;
+import NG.CollisionDetection.GameState;
+import NG.Core.FramePipeline;
 import NG.Core.Game;
+import NG.Core.TickGraph;
 import NG.DataStructures.Generic.AveragingQueue;
 import NG.DataStructures.Generic.Color4f;
 import NG.DataStructures.Generic.Direction;
+import NG.DataStructures.Vector3fxc;
+import NG.Entities.Entity;
+import NG.GameEvent.GameEventQueueLoop;
 import NG.InputHandling.MouseTools.MouseTool;
-import NG.Rendering.GLFWWindow;
 import NG.Rendering.Material;
 import NG.Rendering.MatrixStack.SGL;
+import NG.Rendering.Shaders.DepthShader;
 import NG.Rendering.Shaders.MaterialShader;
 import NG.Rendering.Shaders.ShaderProgram;
 import NG.Settings.Settings;
@@ -19,10 +25,15 @@ import NG.Tools.Logger;
 import NG.Tools.Vectors;
 import org.joml.*;
 
+import java.io.ByteArrayOutputStream;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
+import java.lang.Math;
+import java.nio.IntBuffer;
+import java.nio.file.Path;
 import java.util.*;
+import java.util.stream.IntStream;
 
 import static NG.Settings.Settings.TILE_SIZE;
 import static NG.Settings.Settings.TILE_SIZE_Z;
@@ -31,33 +42,127 @@ import static NG.Settings.Settings.TILE_SIZE_Z;
  * @author Geert van Ieperen created on 3-2-2019.
  */
 public class TileMap extends AbstractMap {
+    /** name of the stage of the tick graph of the {@link GameEventQueueLoop} that prefetches chunks around entities */
+    public static final String PREFETCH_STAGE = "map prefetch";
+    /** estimated memory use of a chunk besides its tiles */
+    private static final int CHUNK_OVERHEAD_BYTES = 128;
+    /** chunk budget of an unbounded map if none is set */
+    private static final long DEFAULT_UNBOUNDED_BUDGET = 64L << 20;
+    /** number of chunks around entities and the camera focus that are loaded before they are used */
+    private static final int PREFETCH_RADIUS = 1;
+    private static final Vector3fc DOWN = new Vector3f(0, 0, -1);
+
     private final int chunkSize;
     private final float realChunkSize;
-    private final List<GameMap.ChangeListener> changeListeners;
+    private final ChangeNotifier changes = new ChangeNotifier();
 
     private int xChunks = 0;
     private int yChunks = 0;
-    private MapChunk[][] map;
+    private MapChunk[][] map; // unused when streaming
     private Game game;
 
+    private long chunkBudget = 0;
+    private ChunkCache cache = null; // null if all chunks are resident
+    private boolean isUnbounded = false; // if true, xChunks and yChunks are ignored
+    private final MapChunk.Extremes streamedHeights = new MapChunk.Extremes(); // of all chunks loaded by the cache
+    private HeightPyramid heightPyramid = null; // null if not all chunks are resident
+    private HeightPyramid chunkBounds = null; // null if unbounded, empty ranges if not all chunks are resident
+    private final VisibleChunks visibleChunks; // of the camera passes
+    private final VisibleChunks shadowChunks; // of the shadow passes, which use the view of the light
+    private final MapGenerator initialGenerator; // null if the map is not generated on init
+
     private Collection<MapChunk> highlightedChunks = new HashSet<>();
     private AveragingQueue culledChunks = new AveragingQueue(30);
 
     public TileMap(int chunkSize) {
+        this(chunkSize, null);
+    }
+
+    /**
+     * creates a map that is generated by the given generator in {@link #init(Game)}, such that the generation runs
+     * concurrently with the initialisation of the other aspects.
+     * @param mapGenerator the generator of the map, or null to start with an empty map
+     */
+    public TileMap(int chunkSize, MapGenerator mapGenerator) {
         this.chunkSize = chunkSize;
         this.realChunkSize = chunkSize * Settings.TILE_SIZE;
+        this.visibleChunks = new VisibleChunks(realChunkSize);
+        this.shadowChunks = new VisibleChunks(realChunkSize);
+        this.initialGenerator = mapGenerator;
         map = new MapChunk[0][0];
-        changeListeners = new ArrayList<>();
     }
 
     @Override
     public void init(Game game) {
         this.game = game;
+
+        // the chunks choose their tiles from the loaded tile sets
+        for (TileThemeSet set : TileThemeSet.values()) {
+            set.load();
+        }
+        if (initialGenerator != null) generateNew(initialGenerator);
+
+        if (game.has(GameEventQueueLoop.class)) {
+            GameEventQueueLoop loop = game.get(GameEventQueueLoop.class);
+            TickGraph graph = loop.getTickGraph();
+            // replaces the stage of a previous map
+            graph.removeStage(PREFETCH_STAGE);
+
+            if (game.has(FramePipeline.class)) {
+                // the published frame is not modified during a tick
+                FramePipeline pipeline = game.get(FramePipeline.class);
+                graph.addStage(PREFETCH_STAGE, false, t -> prefetchEntities(pipeline.getLatest()));
+
+            } else {
+                graph.addStage(PREFETCH_STAGE, false, t -> prefetchEntities(), loop.getStateStage());
+            }
+        }
+
         Logger.printOnline(() -> "culled chunks: " + culledChunks.average());
+        Logger.printOnline(() -> cache == null ? "Chunks: all resident" : cache.toString());
+    }
+
+    /**
+     * sets the maximum memory used by the chunks of this map. If this is set before generating or loading a map, the
+     * chunks of the map are only created when they are first needed, and the least recently used chunks are removed
+     * when the budget is exceeded. Evicted chunks are recreated from the generator or the map file when needed again. A
+     * generator that can not {@link MapGenerator#canGenerateChunks() generate chunks} keeps all chunks in memory.
+     * @param budgetBytes the maximum memory used by chunks, or 0 to keep all chunks in memory.
+     * @see #streamFromFile(Path, long)
+     */
+    public void setChunkBudget(long budgetBytes) {
+        this.chunkBudget = budgetBytes;
+        if (cache != null && budgetBytes > 0) cache.setBudget(budgetBytes);
+    }
+
+    @Override
+    public boolean canInitConcurrently() {
+        return true;
+    }
+
+    @Override
+    public Class<?>[] getInitDependencies() {
+        // the prefetch stage follows the stages of the game state
+        return new Class<?>[]{GameEventQueueLoop.class};
     }
 
     @Override
     public void generateNew(MapGenerator mapGenerator) {
+        if (chunkBudget > 0 && mapGenerator.canGenerateChunks()) {
+            // chunks are generated when needed, without a heightmap of the entire map
+            Vector2ic size = mapGenerator.getSize();
+            if (size.x() == 0) throw new IllegalArgumentException("Received map with 0 size in x direction");
+
+            setChunks(createCache(chunkGenerator(mapGenerator)),
+                    (size.x() - 1) / chunkSize, (size.y() - 1) / chunkSize, false
+            );
+            return;
+        }
+
+        if (chunkBudget > 0) {
+            Logger.WARN.print(mapGenerator.getClass().getSimpleName() + " can not generate chunks, all chunks are kept");
+        }
+
         // height map generation
         float[][] heightmap = mapGenerator.generateHeightMap();
         int randomSeed = mapGenerator.getMapSeed();
@@ -67,46 +172,307 @@ public class TileMap extends AbstractMap {
         int xChunks = (heightmap.length - 1) / chunkSize;
         int yChunks = (heightmap[0].length - 1) / chunkSize;
 
+        // every chunk uses its own random generator, thus chunks can be created in any order
         MapChunk[][] newMap = new MapChunk[xChunks][yChunks];
-        for (int mx = 0; mx < xChunks; mx++) {
-            for (int my = 0; my < yChunks; my++) {
-                int fromY = my * chunkSize;
-                int fromX = mx * chunkSize;
-                MapChunkArray chunk = new MapChunkArray(chunkSize, heightmap, fromX, fromY, randomSeed);
+        IntStream.range(0, xChunks * yChunks).parallel().forEach(i -> {
+            int mx = i / yChunks;
+            int my = i % yChunks;
+            int fromY = my * chunkSize;
+            int fromX = mx * chunkSize;
+            MapChunk chunk = new MapChunkPacked(chunkSize, heightmap, fromX, fromY, randomSeed);
+
+            newMap[mx][my] = chunk;
+        });
+        HeightPyramid pyramid = createPyramid(newMap, xChunks, yChunks);
+        HeightPyramid bounds = createChunkBounds(newMap, xChunks, yChunks);
 
-                newMap[mx][my] = chunk;
-            }
+        synchronized (this) {
+            if (cache != null) cache.close();
+            this.cache = null;
+            this.isUnbounded = false;
+            this.heightPyramid = pyramid;
+            setChunkBounds(bounds);
+            this.map = newMap;
+            this.xChunks = xChunks;
+            this.yChunks = yChunks;
         }
+        changes.changedAll();
+    }
+
+    /**
+     * replaces this map by an infinite map, of which the chunks are generated when they are first used by any query,
+     * including drawing, collision and pathfinding. Chunks are evicted as set by {@link #setChunkBudget(long)}, and
+     * regenerated when used again; chunks that have been changed are kept in memory. For the same seed and properties,
+     * the tiles are the same as those of {@link #generateNew(MapGenerator)}.
+     * <p>
+     * An unbounded map has no meaningful size, and can not be stored.
+     * @param mapGenerator a generator that supports {@link MapGenerator#generateChunk(int, int, int, float[])}
+     */
+    public void generateUnbounded(MapGenerator mapGenerator) {
+        if (chunkBudget <= 0) chunkBudget = DEFAULT_UNBOUNDED_BUDGET;
+
+        setChunks(createCache(chunkGenerator(mapGenerator)), 0, 0, true);
+    }
+
+    /**
+     * @return a source that generates each chunk with {@link MapGenerator#generateChunk(int, int, int, float[])}
+     */
+    private ChunkCache.Source chunkGenerator(MapGenerator mapGenerator) {
+        int randomSeed = mapGenerator.getMapSeed();
+        int stride = chunkSize + 1;
+
+        return (cx, cy) -> {
+            float[] corners = new float[stride * stride];
+            mapGenerator.generateChunk(cx, cy, chunkSize, corners);
+            return new MapChunkPacked(chunkSize, corners, randomSeed);
+        };
+    }
+
+    /**
+     * creates a cache of chunks of this map with the current budget, which records the heights of the loaded chunks
+     */
+    private ChunkCache createCache(ChunkCache.Source source) {
+        ChunkCache.Source recordingSource = new ChunkCache.Source() {
+            @Override
+            public MapChunk load(int cx, int cy) throws IOException {
+                MapChunk chunk = source.load(cx, cy);
+                MapChunk.Extremes minMax = chunk.getMinMax();
 
+                synchronized (streamedHeights) {
+                    streamedHeights.check(minMax.getMin());
+                    streamedHeights.check(minMax.getMax());
+                }
+                return chunk;
+            }
+
+            @Override
+            public void close() throws IOException {
+                source.close();
+            }
+        };
+
+        int nrOfThreads = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+        long bytesPerChunk = chunkSize * chunkSize * Integer.BYTES + CHUNK_OVERHEAD_BYTES;
+        return new ChunkCache(recordingSource, bytesPerChunk, chunkBudget, nrOfThreads);
+    }
+
+    /**
+     * replaces the chunks of this map by the given streaming cache
+     */
+    private void setChunks(ChunkCache newCache, int xChunks, int yChunks, boolean isUnbounded) {
         synchronized (this) {
-            this.map = newMap;
+            if (cache != null) cache.close();
+            this.cache = newCache;
+            this.isUnbounded = isUnbounded;
+            this.heightPyramid = null;
+            setChunkBounds(isUnbounded ? null : createChunkBounds(null, xChunks, yChunks));
+            this.map = new MapChunk[0][0];
             this.xChunks = xChunks;
             this.yChunks = yChunks;
         }
-        changeListeners.forEach(GameMap.ChangeListener::onMapChange);
+        changes.changedAll();
     }
 
+    /**
+     * creates a height pyramid over the tiles of the given chunks
+     */
+    private HeightPyramid createPyramid(MapChunk[][] chunks, int xChunks, int yChunks) {
+        HeightPyramid pyramid = new HeightPyramid(
+                xChunks * chunkSize, yChunks * chunkSize, HeightPyramid.LEAF_TILES, TILE_SIZE, 0, 0, 0
+        );
 
+        for (int mx = 0; mx < xChunks; mx++) {
+            for (int my = 0; my < yChunks; my++) {
+                MapChunk chunk = chunks[mx][my];
+
+                for (int rx = 0; rx < chunkSize; rx++) {
+                    for (int ry = 0; ry < chunkSize; ry++) {
+                        MapTile type = chunk.getType(rx, ry);
+                        if (type == null) continue;
+
+                        AABBf bounds = type.getBoundingBox();
+                        float z = chunk.getOffset(rx, ry) * TILE_SIZE_Z;
+                        pyramid.include(mx * chunkSize + rx, my * chunkSize + ry, bounds.minZ + z, bounds.maxZ + z);
+                    }
+                }
+            }
+        }
+
+        pyramid.rebuild();
+        return pyramid;
+    }
+
+    /**
+     * recomputes the height range of the cell of the given pyramid that contains tile (x, y), as the new range of the
+     * tile may be smaller than the old one
+     */
+    private void updateCell(HeightPyramid pyramid, int x, int y) {
+        int n = pyramid.getTilesPerCell();
+        int xFrom = (x / n) * n;
+        int yFrom = (y / n) * n;
+        int xTo = Math.min(xFrom + n, xChunks * chunkSize);
+        int yTo = Math.min(yFrom + n, yChunks * chunkSize);
+        MapChunk.Extremes range = new MapChunk.Extremes();
+
+        for (int tx = xFrom; tx < xTo; tx++) {
+            for (int ty = yFrom; ty < yTo; ty++) {
+                MapChunk chunk = getChunkOfTile(tx, ty);
+                if (chunk == null) continue;
+
+                int rx = Math.floorMod(tx, chunkSize);
+                int ry = Math.floorMod(ty, chunkSize);
+                MapTile type = chunk.getType(rx, ry);
+                if (type == null) continue;
+
+                AABBf bounds = type.getBoundingBox();
+                float z = chunk.getOffset(rx, ry) * TILE_SIZE_Z;
+                range.check(bounds.minZ + z);
+                range.check(bounds.maxZ + z);
+            }
+        }
+
+        pyramid.update(x / n, y / n, range.getMin(), range.getMax());
+    }
+
+    /**
+     * creates the height ranges of the given chunks for culling
+     * @param chunks the chunks, or null if the chunks are not resident, in which case all ranges are empty
+     */
+    private HeightPyramid createChunkBounds(MapChunk[][] chunks, int xChunks, int yChunks) {
+        HeightPyramid bounds = new HeightPyramid(xChunks, yChunks, realChunkSize, 0, 0, 0);
+        if (chunks == null) return bounds;
+
+        for (int mx = 0; mx < xChunks; mx++) {
+            for (int my = 0; my < yChunks; my++) {
+                MapChunk.Extremes minMax = chunks[mx][my].getMinMax();
+                bounds.setLeaf(mx, my, minMax.getMin(), minMax.getMax());
+            }
+        }
+
+        bounds.rebuild();
+        return bounds;
+    }
+
+    private void setChunkBounds(HeightPyramid bounds) {
+        this.chunkBounds = bounds;
+        visibleChunks.setBounds(bounds);
+        shadowChunks.setBounds(bounds);
+    }
 
     @Override
-    public int getHeightAt(int x, int y) {
-        int cx = x / chunkSize;
-        int cy = y / chunkSize;
+    HeightPyramid getHeightPyramid() {
+        return heightPyramid;
+    }
+
+    /**
+     * @return the chunk with the given chunk coordinate, loading it if necessary, or null if it is not on the map
+     */
+    private MapChunk getChunk(int cx, int cy) {
+        if (!isOnMap(cx, cy)) return null;
+
+        ChunkCache cache = this.cache;
+        return (cache == null) ? map[cx][cy] : cache.get(cx, cy);
+    }
 
-        if (cx >= xChunks || cx < 0 || cy >= yChunks || cy < 0) {
-            return 0;
+    /** @return the chunk that contains tile (x, y), or null if it is not on the map */
+    private MapChunk getChunkOfTile(int x, int y) {
+        return getChunk(Math.floorDiv(x, chunkSize), Math.floorDiv(y, chunkSize));
+    }
+
+    private boolean isOnMap(int cx, int cy) {
+        return isUnbounded || (cx >= 0 && cx < xChunks && cy >= 0 && cy < yChunks);
+    }
+
+    @Override
+    protected boolean isBounded() {
+        return !isUnbounded;
+    }
+
+    /**
+     * starts loading the chunks around every entity of the given frame, such that the collision, height and path
+     * queries of the next ticks rarely wait for a chunk to load. Does nothing if all chunks are resident.
+     * @param frame the last published frame, or null if none is published yet
+     */
+    private void prefetchEntities(FramePipeline.Frame frame) {
+        ChunkCache cache = this.cache;
+        if (cache == null || frame == null) return;
+
+        for (int i = 0; i < frame.size(); i++) {
+            Vector3fxc position = frame.state(i).position();
+            prefetchAround(cache, position.x(), position.y());
+        }
+    }
+
+    /**
+     * starts loading the chunks around every entity of the game state, like {@link
+     * #prefetchEntities(FramePipeline.Frame)}. Must not run concurrently with the update of the state.
+     */
+    private void prefetchEntities() {
+        ChunkCache cache = this.cache;
+        if (cache == null || !game.has(GameState.class)) return;
+
+        for (Entity entity : game.get(GameState.class).entities()) {
+            Vector3fxc position = entity.getCurrentState().position();
+            prefetchAround(cache, position.x(), position.y());
+        }
+    }
+
+    /**
+     * starts loading the chunks within {@link #PREFETCH_RADIUS} chunks of the chunk that contains the given position
+     */
+    private void prefetchAround(ChunkCache cache, float x, float y) {
+        int cx = (int) Math.floor(x / realChunkSize);
+        int cy = (int) Math.floor(y / realChunkSize);
+
+        for (int px = cx - PREFETCH_RADIUS; px <= cx + PREFETCH_RADIUS; px++) {
+            for (int py = cy - PREFETCH_RADIUS; py <= cy + PREFETCH_RADIUS; py++) {
+                if (isOnMap(px, py)) cache.prefetch(px, py);
+            }
         }
+    }
+
+    @Override
+    public int getHeightAt(int x, int y) {
+        int cx = Math.floorDiv(x, chunkSize);
+        int cy = Math.floorDiv(y, chunkSize);
 
-        MapChunk chunk = map[cx][cy];
+        MapChunk chunk = getChunk(cx, cy);
 
         return chunk == null ? 0 : chunk.getHeightAt(x - cx * chunkSize, y - cy * chunkSize);
     }
 
+    /**
+     * @return the height of tile (x, y) on the middle of the given side, or 0 if it is not on the map
+     * @see MapTile.Instance#heightOf(Direction)
+     */
+    private int heightOf(int x, int y, Direction direction) {
+        MapChunk chunk = getChunkOfTile(x, y);
+        if (chunk == null) return 0;
+
+        return chunk.heightOf(Math.floorMod(x, chunkSize), Math.floorMod(y, chunkSize), direction);
+    }
+
+    /**
+     * @return the height of tile (x, y) on the given corner, or 0 if it is not on the map
+     * @see MapTile.Instance#heightOfCorner(boolean, boolean)
+     */
+    private int heightOfCorner(int x, int y, boolean positiveX, boolean positiveY) {
+        MapChunk chunk = getChunkOfTile(x, y);
+        if (chunk == null) return 0;
+
+        int rx = Math.floorMod(x, chunkSize);
+        int ry = Math.floorMod(y, chunkSize);
+        MapTile type = chunk.getType(rx, ry);
+        if (type == null) return 0;
+
+        return type.heightOfCorner(chunk.getOffset(rx, ry), chunk.getRotation(rx, ry), positiveX, positiveY);
+    }
+
     @Override
     public Vector2i getCoordinate(Vector3fc position) {
         return new Vector2i(
-                (int) (position.x() / TILE_SIZE),
-                (int) (position.y() / TILE_SIZE)
+                (int) Math.floor(position.x() / TILE_SIZE),
+                (int) Math.floor(position.y() / TILE_SIZE)
         );
     }
 
@@ -121,16 +487,21 @@ public class TileMap extends AbstractMap {
 
     @Override
     public float getHeightAt(float x, float y) {
-        int ix = (int) (x / TILE_SIZE);
-        int iy = (int) (y / TILE_SIZE);
-        MapTile.Instance tile = getTileData(ix, iy);
-        if (tile == null) return 0;
-
-        float rayStartHeight = tile.type.getBoundingBox().maxZ + tile.offset * TILE_SIZE_Z + 1;
-        float f = tile.intersectFraction(
-                new Vector2f((ix + 0.5f) * TILE_SIZE, (iy + 0.5f) * TILE_SIZE),
-                new Vector3f(x, y, rayStartHeight),
-                new Vector3f(0, 0, -1)
+        int ix = (int) Math.floor(x / TILE_SIZE);
+        int iy = (int) Math.floor(y / TILE_SIZE);
+        MapChunk chunk = getChunkOfTile(ix, iy);
+        if (chunk == null) return 0;
+
+        int rx = Math.floorMod(ix, chunkSize);
+        int ry = Math.floorMod(iy, chunkSize);
+        MapTile type = chunk.getType(rx, ry);
+        if (type == null) return 0;
+
+        int offset = chunk.getOffset(rx, ry);
+        float rayStartHeight = type.getBoundingBox().maxZ + offset * TILE_SIZE_Z + 1;
+        float f = type.intersectFraction(
+                (ix + 0.5f) * TILE_SIZE, (iy + 0.5f) * TILE_SIZE, offset, chunk.getRotation(rx, ry),
+                new Vector3f(x, y, rayStartHeight), DOWN
         );
 
         return rayStartHeight - f;
@@ -138,7 +509,7 @@ public class TileMap extends AbstractMap {
 
     @Override
     public void draw(SGL gl) {
-        if (map == null) return;
+        if (!isUnbounded && (xChunks == 0 || yChunks == 0)) return;
         assert gl.getPosition(Vectors.O).equals(Vectors.O) : "gl object not placed at origin";
 
         ShaderProgram shader = gl.getShader();
@@ -147,49 +518,81 @@ public class TileMap extends AbstractMap {
             ((MaterialShader) shader).setMaterial(Material.ROUGH, new Color4f(85, 153, 0, 1));
         }
 
-        GLFWWindow window = game.get(GLFWWindow.class);
-        Matrix4f viewProjection = game.get(Camera.class)
-                .getViewProjection((float) window.getWidth() / window.getHeight());
-        FrustumIntersection fic = new FrustumIntersection().set(viewProjection, false);
-        int numOfCulled = 0;
+        // chunks that are not loaded are assumed to lie within the heights of the loaded chunks
+        float zLow = Float.POSITIVE_INFINITY;
+        float zHigh = Float.NEGATIVE_INFINITY;
+        if (cache != null) {
+            synchronized (streamedHeights) {
+                zLow = Math.min(streamedHeights.getMin(), 0);
+                zHigh = Math.max(streamedHeights.getMax(), 0);
+            }
+        }
 
+        int xMin = 0, yMin = 0, xMax = 0, yMax = 0;
+        if (isUnbounded) {
+            // only the chunks within view distance of the camera focus
+            Vector3fc focus = game.get(Camera.class).getFocus();
+            xMin = Math.floorDiv((int) (focus.x() - Settings.Z_FAR), (int) realChunkSize);
+            yMin = Math.floorDiv((int) (focus.y() - Settings.Z_FAR), (int) realChunkSize);
+            xMax = Math.floorDiv((int) (focus.x() + Settings.Z_FAR), (int) realChunkSize) + 1;
+            yMax = Math.floorDiv((int) (focus.y() + Settings.Z_FAR), (int) realChunkSize) + 1;
+        }
+
+        // each view keeps its own result, such that the passes do not invalidate each other
+        boolean isCameraPass = !(shader instanceof DepthShader);
+        VisibleChunks visible = isCameraPass ? visibleChunks : shadowChunks;
+
+        MapChunk[][] map;
+        ChunkCache cache;
         synchronized (this) {
-            gl.pushMatrix();
-            {
-                // tile 1 stretches from (0, 0) to (TILE_SIZE, TILE_SIZE)
-                gl.translate(TILE_SIZE * 0.5f, TILE_SIZE * 0.5f, 0);
-
-                for (int x = 0; x < map.length; x++) {
-                    MapChunk[] chunks = map[x];
-
-                    gl.pushMatrix();
-                    {
-                        for (int y = 0; y < chunks.length; y++) {
-                            MapChunk chunk = chunks[y];
-                            MapChunk.Extremes minMax = chunk.getMinMax();
-                            boolean isVisible = fic.testAab(
-                                    x * realChunkSize, y * realChunkSize, minMax.getMin(),
-                                    (x + 1) * realChunkSize, (y + 1) * realChunkSize, minMax.getMax()
-                            );
-
-                            if (isVisible) {
-                                chunk.setHighlight(isMaterialShader);
-                                chunk.draw(gl);
-                            } else {
-                                numOfCulled++;
-                            }
-
-                            gl.translate(0, realChunkSize, 0);
-                        }
-                    }
-                    gl.popMatrix();
-                    gl.translate(realChunkSize, 0, 0);
+            // the visible chunks must match the current chunks
+            map = this.map;
+            cache = this.cache;
+            boolean isChanged = visible.update(
+                    gl.getViewProjectionMatrix(), zLow, zHigh, xMin, yMin, xMax, yMax
+            );
+            if (isChanged && isCameraPass) culledChunks.add(visible.getNrOfCulled());
+        }
+
+        if (cache != null && isCameraPass) {
+            // the chunks the camera moves towards
+            Vector3fc focus = game.get(Camera.class).getFocus();
+            prefetchAround(cache, focus.x(), focus.y());
+        }
+
+        gl.pushMatrix();
+        {
+            // tile 1 stretches from (0, 0) to (TILE_SIZE, TILE_SIZE)
+            gl.translate(TILE_SIZE * 0.5f, TILE_SIZE * 0.5f, 0);
+
+            for (int i = 0; i < visible.size(); i++) {
+                int x = visible.getX(i);
+                int y = visible.getY(i);
+                MapChunk chunk = (cache == null) ? map[x][y] : cache.getIfResident(x, y);
+
+                if (chunk == null) {
+                    // drawn when loaded
+                    cache.prefetch(x, y);
+                    continue;
                 }
-            }
-            gl.popMatrix();
 
-            culledChunks.add(numOfCulled);
+                gl.translate(x * realChunkSize, y * realChunkSize, 0);
+                chunk.setHighlight(isMaterialShader);
+                chunk.draw(gl);
+                gl.translate(-x * realChunkSize, -y * realChunkSize, 0);
+            }
         }
+        gl.popMatrix();
+    }
+
+    /**
+     * returns the chunks that were visible to the camera in the last camera pass of {@link #draw(SGL)}. All camera
+     * passes of a frame share this list, and it is only recomputed when the view or the map changes. Shadow passes keep
+     * a list of their own.
+     * @return the chunks visible to the camera, which are updated on the render thread
+     */
+    public VisibleChunks getVisibleChunks() {
+        return visibleChunks;
     }
 
     public CopyGenerator cornerCopyGenerator() {
@@ -204,24 +607,20 @@ public class TileMap extends AbstractMap {
 
                 for (int x = 0; x < mapXSize; x++) {
                     for (int y = 0; y < mapYSize; y++) {
-                        MapTile.Instance tile = getTileData(x, y);
-                        floats[x][y] = tile.heightOfCorner(false, false);
+                        floats[x][y] = heightOfCorner(x, y, false, false);
                         progress++;
                     }
 
-                    MapTile.Instance tile = getTileData(x, mapYSize - 1);
-                    floats[x][mapYSize] = tile.heightOfCorner(false, true);
+                    floats[x][mapYSize] = heightOfCorner(x, mapYSize - 1, false, true);
                     progress++;
                 }
 
                 for (int y = 0; y < mapYSize; y++) {
-                    MapTile.Instance tile = getTileData(mapXSize - 1, y);
-                    floats[mapXSize][y] = tile.heightOfCorner(true, false);
+                    floats[mapXSize][y] = heightOfCorner(mapXSize - 1, y, true, false);
                     progress++;
                 }
 
-                MapTile.Instance tile = getTileData(mapXSize - 1, mapYSize - 1);
-                floats[mapXSize][mapYSize] = tile.heightOfCorner(true, true);
+                floats[mapXSize][mapYSize] = heightOfCorner(mapXSize - 1, mapYSize - 1, true, true);
                 progress++;
 
                 return floats;
@@ -237,7 +636,12 @@ public class TileMap extends AbstractMap {
 
     @Override
     public void addChangeListener(GameMap.ChangeListener listener) {
-        changeListeners.add(listener);
+        changes.addListener(listener);
+    }
+
+    @Override
+    public void batchChanges(Runnable edits) {
+        changes.batch(edits);
     }
 
     @Override
@@ -246,12 +650,11 @@ public class TileMap extends AbstractMap {
         highlightedChunks.clear();
 
         for (Vector2ic c : coordinates) {
-            int cx = c.x() / chunkSize;
-            int cy = c.y() / chunkSize;
-
-            if (cx >= xChunks || cx < 0 || cy >= yChunks || cy < 0) continue;
+            int cx = Math.floorDiv(c.x(), chunkSize);
+            int cy = Math.floorDiv(c.y(), chunkSize);
 
-            MapChunk chunk = map[cx][cy];
+            MapChunk chunk = getChunk(cx, cy);
+            if (chunk == null) continue;
             highlightedChunks.add(chunk);
 
             int rx = c.x() - cx * chunkSize;
@@ -263,6 +666,7 @@ public class TileMap extends AbstractMap {
 
     @Override
     public Vector2ic getSize() {
+        if (isUnbounded) return new Vector2i(Integer.MAX_VALUE, Integer.MAX_VALUE);
         return new Vector2i(xChunks * chunkSize, yChunks * chunkSize);
     }
 
@@ -273,25 +677,15 @@ public class TileMap extends AbstractMap {
 
     @Override
     public void cleanup() {
-        changeListeners.clear();
+        changes.clear();
         highlightedChunks.clear();
+        if (cache != null) cache.close();
     }
 
     @Override
     public void writeToDataStream(DataOutputStream out) throws IOException {
-        List<MapTile> tileTypes = MapTiles.values();
-
-        // number of tile types
-        int nrOfTileTypes = tileTypes.size();
-        out.writeInt(nrOfTileTypes);
-
-        // write all tiles in order
-        for (MapTile tileType : tileTypes) {
-            out.writeInt(tileType.tileID);
-            out.writeUTF(tileType.toString());
-            out.writeUTF(String.valueOf(tileType.sourceSet));
-            out.writeInt(tileType.orientationBits());
-        }
+        if (isUnbounded) throw new IOException("An unbounded map can not be stored");
+        writeTileTypes(out);
 
         synchronized (this) {
             out.writeInt(chunkSize);
@@ -299,9 +693,9 @@ public class TileMap extends AbstractMap {
             out.writeInt(yChunks);
 
             // now write the chunks themselves
-            for (MapChunk[] mapChunks : map) {
-                for (MapChunk chunk : mapChunks) {
-                    chunk.writeToStream(out);
+            for (int mx = 0; mx < xChunks; mx++) {
+                for (int my = 0; my < yChunks; my++) {
+                    getChunk(mx, my).writeToStream(out);
                 }
             }
         }
@@ -313,7 +707,136 @@ public class TileMap extends AbstractMap {
      * @throws IOException if the data produces unexpected values
      */
     public TileMap(DataInputStream in) throws IOException {
+        Map<Integer, MapTile> types = readTileTypes(in);
+
+        chunkSize = in.readInt();
+        this.realChunkSize = chunkSize * Settings.TILE_SIZE;
+        this.visibleChunks = new VisibleChunks(realChunkSize);
+        this.shadowChunks = new VisibleChunks(realChunkSize);
+        this.initialGenerator = null;
+        this.xChunks = in.readInt();
+        this.yChunks = in.readInt();
+
+        Logger.DEBUG.printf("Tilemap: %s x %s", chunkSize * xChunks, chunkSize * yChunks);
+
+        // now read chunks themselves
+        map = new MapChunk[xChunks][];
+        for (int mx = 0; mx < xChunks; mx++) {
+            MapChunk[] yStrip = new MapChunk[yChunks];
+
+            for (int my = 0; my < yChunks; my++) {
+                MapChunk chunk = new MapChunkPacked(chunkSize);
+                chunk.readFromStream(in, types);
+                yStrip[my] = chunk;
+            }
+            map[mx] = yStrip;
+        }
+
+        heightPyramid = createPyramid(map, xChunks, yChunks);
+        setChunkBounds(createChunkBounds(map, xChunks, yChunks));
+    }
+
+    /**
+     * writes this map to the given file in the {@link MapFile} format. Every chunk is stored as one contiguous block of
+     * packed tiles, written with one bulk transfer.
+     * @param file the file to write to. An existing file is replaced.
+     * @see #readFromFile(Path)
+     */
+    public void writeToFile(Path file) throws IOException {
+        if (isUnbounded) throw new IOException("An unbounded map can not be stored");
+        ByteArrayOutputStream headerBytes = new ByteArrayOutputStream();
+        DataOutputStream header = new DataOutputStream(headerBytes);
+        writeTileTypes(header);
+
+        synchronized (this) {
+            header.writeInt(chunkSize);
+            header.writeInt(xChunks);
+            header.writeInt(yChunks);
+
+            int chunkBytes = chunkSize * chunkSize * Integer.BYTES;
+            long chunkStride = MapFile.align(chunkBytes);
+            long payloadSize = xChunks * yChunks * chunkStride;
+
+            try (MapFile mapFile = MapFile.create(file, MapFile.TILE_MAP, headerBytes.toByteArray(), payloadSize)) {
+                for (int mx = 0; mx < xChunks; mx++) {
+                    for (int my = 0; my < yChunks; my++) {
+                        long offset = (mx * yChunks + my) * chunkStride;
+                        IntBuffer target = mapFile.payload(offset, chunkBytes).asIntBuffer();
+                        MapChunkPacked.writePacked(getChunk(mx, my), chunkSize, target);
+                    }
+                }
+            }
+        }
+    }
 
+    /**
+     * reads a map from a file written by {@link #writeToFile(Path)}. Must be executed on the render thread for loading
+     * tile models.
+     * @param file the file to read
+     * @return a new map, which must still be initialized
+     * @throws IOException if the file could not be read or is not a tile map
+     */
+    public static TileMap readFromFile(Path file) throws IOException {
+        try (FileChunkSource source = new FileChunkSource(file)) {
+            TileMap tileMap = new TileMap(source.chunkSize);
+            MapChunk[][] map = new MapChunk[source.xChunks][source.yChunks];
+
+            for (int mx = 0; mx < source.xChunks; mx++) {
+                for (int my = 0; my < source.yChunks; my++) {
+                    map[mx][my] = source.load(mx, my);
+                }
+            }
+
+            tileMap.map = map;
+            tileMap.xChunks = source.xChunks;
+            tileMap.yChunks = source.yChunks;
+            tileMap.heightPyramid = tileMap.createPyramid(map, source.xChunks, source.yChunks);
+            tileMap.setChunkBounds(tileMap.createChunkBounds(map, source.xChunks, source.yChunks));
+            return tileMap;
+        }
+    }
+
+    /**
+     * opens a map from a file written by {@link #writeToFile(Path)}, where chunks are only read from the file when they
+     * are needed. The file stays open until the map is cleaned up. Must be executed on the render thread for loading
+     * tile models.
+     * @param file        the file to read
+     * @param budgetBytes the maximum memory used by chunks
+     * @return a new map, which must still be initialized
+     * @throws IOException if the file could not be read or is not a tile map
+     * @see #setChunkBudget(long)
+     */
+    public static TileMap streamFromFile(Path file, long budgetBytes) throws IOException {
+        FileChunkSource source = new FileChunkSource(file);
+        TileMap tileMap = new TileMap(source.chunkSize);
+        tileMap.setChunkBudget(budgetBytes);
+        tileMap.setChunks(tileMap.createCache(source), source.xChunks, source.yChunks, false);
+        return tileMap;
+    }
+
+    private static void writeTileTypes(DataOutputStream out) throws IOException {
+        List<MapTile> tileTypes = MapTiles.values();
+        // the default tile is not registered, but is used where no tile fits
+        if (!tileTypes.contains(MapTile.DEFAULT_TILE)) tileTypes.add(MapTile.DEFAULT_TILE);
+
+        // number of tile types
+        int nrOfTileTypes = tileTypes.size();
+        out.writeInt(nrOfTileTypes);
+
+        // write all tiles in order
+        for (MapTile tileType : tileTypes) {
+            out.writeInt(tileType.tileID);
+            out.writeUTF(tileType.toString());
+            out.writeUTF(String.valueOf(tileType.sourceSet));
+            out.writeInt(tileType.orientationBits());
+        }
+    }
+
+    /**
+     * reads the tile types written by {@link #writeTileTypes(DataOutputStream)}, and loads the required tile sets.
+     * @return a mapping from the stored tile ids to the matching tiles
+     */
+    private static Map<Integer, MapTile> readTileTypes(DataInputStream in) throws IOException {
         // get number of tile types
         int nrOfTileTypes = in.readInt();
         Map<Integer, MapTile> types = new HashMap<>(nrOfTileTypes);
@@ -344,38 +867,15 @@ public class TileMap extends AbstractMap {
             }
         }
 
-        chunkSize = in.readInt();
-        this.realChunkSize = chunkSize * Settings.TILE_SIZE;
-        this.xChunks = in.readInt();
-        this.yChunks = in.readInt();
-
-        Logger.DEBUG.printf("Tilemap: %s x %s", chunkSize * xChunks, chunkSize * yChunks);
-
-        // now read chunks themselves
-        map = new MapChunk[xChunks][];
-        for (int mx = 0; mx < xChunks; mx++) {
-            MapChunk[] yStrip = new MapChunk[yChunks];
-
-            for (int my = 0; my < yChunks; my++) {
-                MapChunkArray chunk = new MapChunkArray(chunkSize);
-                chunk.readFromStream(in, types);
-                yStrip[my] = chunk;
-            }
-            map[mx] = yStrip;
-        }
-
-        changeListeners = new ArrayList<>();
+        return types;
     }
 
     public MapTile.Instance getTileData(int x, int y) {
-        if (x < 0 || y < 0) return null;
+        int cx = Math.floorDiv(x, chunkSize);
+        int cy = Math.floorDiv(y, chunkSize);
 
-        int cx = x / chunkSize;
-        int cy = y / chunkSize;
-
-        if (cx >= xChunks || cy >= yChunks) return null;
-
-        MapChunk chunk = map[cx][cy];
+        MapChunk chunk = getChunk(cx, cy);
+        if (chunk == null) return null;
 
         int rx = x - cx * chunkSize;
         int ry = y - cy * chunkSize;
@@ -383,19 +883,32 @@ public class TileMap extends AbstractMap {
     }
 
     public void setTile(int x, int y, MapTile.Instance instance) {
-        int cx = x / chunkSize;
-        int cy = y / chunkSize;
+        int cx = Math.floorDiv(x, chunkSize);
+        int cy = Math.floorDiv(y, chunkSize);
 
-        if (cx >= xChunks || cx < 0 || cy >= yChunks || cy < 0) return;
+        if (!isOnMap(cx, cy)) return;
 
-        MapChunk chunk = map[cx][cy];
+        ChunkCache cache = this.cache;
+        MapChunk chunk = (cache == null) ? map[cx][cy] : cache.getModifiable(cx, cy);
+        if (chunk == null) return;
 
         int rx = x - cx * chunkSize;
         int ry = y - cy * chunkSize;
 
         chunk.set(rx, ry, instance);
 
-        changeListeners.forEach(GameMap.ChangeListener::onMapChange);
+        HeightPyramid pyramid = this.heightPyramid;
+        if (pyramid != null) updateCell(pyramid, x, y);
+
+        HeightPyramid chunkBounds = this.chunkBounds;
+        if (chunkBounds != null && cache == null) {
+            MapChunk.Extremes minMax = chunk.getMinMax();
+            chunkBounds.update(cx, cy, minMax.getMin(), minMax.getMax());
+            visibleChunks.invalidate();
+            shadowChunks.invalidate();
+        }
+
+        changes.changed(x, y);
     }
 
     public void replaceTile(int x, int y, MapTile newShape) {
@@ -407,8 +920,10 @@ public class TileMap extends AbstractMap {
     public Collection<Vector2i> findPath(
             Vector2ic beginPosition, Vector2ic target, float walkSpeed, float climbSpeed
     ) {
-        int xMax = (xChunks * chunkSize) - 1;
-        int yMax = (yChunks * chunkSize) - 1;
+        // an unbounded map is searched in the positive quadrant only
+        Vector2ic size = getSize();
+        int xMax = size.x() - 1;
+        int yMax = size.y() - 1;
 
         return new AStar(beginPosition, target, xMax, yMax) {
             @Override
@@ -417,18 +932,14 @@ public class TileMap extends AbstractMap {
                 float duration = 0;
 
                 if (x1 == x2 || y1 == y2) {
-                    MapTile.Instance fromTile = getTileData(x1, y1);
-                    MapTile.Instance toTile = getTileData(x2, y2);
-                    assert fromTile != null && toTile != null;
-
                     Direction move = Direction.get(x2 - x1, y2 - y1);
 
-                    int fromHeight = fromTile.heightOf(move);
-                    int toHeight = toTile.heightOf(move.inverse());
+                    int fromHeight = heightOf(x1, y1, move);
+                    int toHeight = heightOf(x2, y2, move.inverse());
 
                     // steepness
-                    float t1inc = (fromHeight - fromTile.getHeight()) / (TILE_SIZE / 2);
-                    float t2inc = (toHeight - toTile.getHeight()) / (TILE_SIZE / 2);
+                    float t1inc = (fromHeight - getHeightAt(x1, y1)) / (TILE_SIZE / 2);
+                    float t2inc = (toHeight - getHeightAt(x2, y2)) / (TILE_SIZE / 2);
 
                     // actual duration of walking
                     float walkSpeedT1 = (1f / hypoLength(t1inc)) * walkSpeed;
@@ -462,19 +973,77 @@ public class TileMap extends AbstractMap {
     }
 
     @Override
-    public Float getTileIntersect(Vector3fc origin, Vector3fc direction, int xCoord, int yCoord) {
-        MapTile.Instance tileData = getTileData(xCoord, yCoord);
-
-        if (tileData == null) {
-            Logger.WARN.print(String.format(
-                    "%s is not on the map",
-                    Vectors.asVectorString(xCoord, yCoord)
-            ));
-            return null;
-
-        } else {
-            Vector2f tilePosition = new Vector2f((xCoord + 0.5f) * TILE_SIZE, (yCoord + 0.5f) * TILE_SIZE);
-            return tileData.intersectFraction(tilePosition, origin, direction);
+    public float getTileIntersect(Vector3fc origin, Vector3fc direction, int xCoord, int yCoord) {
+        MapChunk chunk = getChunkOfTile(xCoord, yCoord);
+        if (chunk == null) return NOT_ON_MAP;
+
+        int rx = Math.floorMod(xCoord, chunkSize);
+        int ry = Math.floorMod(yCoord, chunkSize);
+        MapTile type = chunk.getType(rx, ry);
+        if (type == null) return NOT_ON_MAP;
+
+        return type.intersectFraction(
+                (xCoord + 0.5f) * TILE_SIZE, (yCoord + 0.5f) * TILE_SIZE,
+                chunk.getOffset(rx, ry), chunk.getRotation(rx, ry), origin, direction
+        );
+    }
+
+    /**
+     * reads the chunks of a map file written by {@link #writeToFile(Path)}
+     */
+    private static class FileChunkSource implements ChunkCache.Source, AutoCloseable {
+        final int chunkSize;
+        final int xChunks;
+        final int yChunks;
+        private final MapFile mapFile;
+        private final int[] idMapping;
+        private final int chunkBytes;
+        private final long chunkStride;
+
+        FileChunkSource(Path file) throws IOException {
+            mapFile = MapFile.open(file, MapFile.TILE_MAP);
+
+            try {
+                DataInputStream header = mapFile.header();
+                Map<Integer, MapTile> types = readTileTypes(header);
+
+                // maps the tile ids of the file to the current tile ids
+                int maxID = types.keySet().stream().mapToInt(Integer::intValue).max().orElse(-1);
+                idMapping = new int[maxID + 1];
+                Arrays.fill(idMapping, -1);
+                types.forEach((fileID, tile) -> idMapping[fileID] = tile.tileID);
+
+                chunkSize = header.readInt();
+                xChunks = header.readInt();
+                yChunks = header.readInt();
+                Logger.DEBUG.printf("Tilemap: %s x %s", chunkSize * xChunks, chunkSize * yChunks);
+
+            } catch (IOException ex) {
+                mapFile.close();
+                throw ex;
+            }
+
+            chunkBytes = chunkSize * chunkSize * Integer.BYTES;
+            chunkStride = MapFile.align(chunkBytes);
+        }
+
+        @Override
+        public MapChunk load(int cx, int cy) throws IOException {
+            MapChunkPacked chunk = new MapChunkPacked(chunkSize);
+            long offset = ((long) cx * yChunks + cy) * chunkStride;
+
+            IntBuffer buffer;
+            synchronized (mapFile) {
+                buffer = mapFile.payload(offset, chunkBytes).asIntBuffer();
+            }
+            chunk.readPacked(buffer, idMapping);
+
+            return chunk;
+        }
+
+        @Override
+        public void close() throws IOException {
+            mapFile.close();
         }
     }
 }
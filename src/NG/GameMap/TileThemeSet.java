@@ -24,15 +24,21 @@ public enum TileThemeSet {
         this.path = Directory.mapTileModels.getPath(path);
     }
 
+    /**
+     * loads the tiles of this set, if this has not been done before. May be called from any thread.
+     */
     public void load() {
-        if (isLoaded) return;
+        // the tiles of all sets are registered in the same tables
+        synchronized (TileThemeSet.class) {
+            if (isLoaded) return;
 
-        try {
-            MapTiles.readTileSetFile(this, path);
-            isLoaded = true;
+            try {
+                MapTiles.readTileSetFile(this, path);
+                isLoaded = true;
 
-        } catch (IOException ex) {
-            Logger.ERROR.print("Error while trying to load " + this, ex);
+            } catch (IOException ex) {
+                Logger.ERROR.print("Error while trying to load " + this, ex);
+            }
         }
     }
 }
@@ -0,0 +1,171 @@
+package NG.GameMap;
+
+import org.joml.FrustumIntersection;
+import org.joml.Matrix4f;
+import org.joml.Matrix4fc;
+
+import java.lang.Math;
+import java.util.Arrays;
+
+/**
+ * The coordinates of the chunks of a map that lie within a view frustum. For a map of bounded size, the chunks are found
+ * by culling a quadtree of chunk bounds from the top down: a region that lies entirely inside or outside the frustum is
+ * accepted or rejected without testing the chunks in it.
+ * <p>
+ * The result is kept until the view or the chunk bounds change, such that all passes that render with the same view
+ * share a single result. Passes with a different view, such as the shadow passes, must use their own instance, or they
+ * invalidate each other's result every frame. The list is updated and read on the render thread.
+ */
+public class VisibleChunks {
+    private final float chunkSize;
+    private final FrustumIntersection frustum = new FrustumIntersection();
+    private final Matrix4f view = new Matrix4f();
+
+    private HeightPyramid bounds = null;
+    private boolean isValid = false;
+    private float zLow, zHigh;
+    private int xMin, yMin, xMax, yMax;
+
+    private int[] xCoords = new int[64];
+    private int[] yCoords = new int[64];
+    private int nrOfVisible = 0;
+    private int nrOfCulled = 0;
+
+    /**
+     * @param chunkSize the real size of a chunk
+     */
+    VisibleChunks(float chunkSize) {
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * @param chunkBounds the height range of every chunk, where cell (x, y) of the bottom level is the range of chunk
+     *                    (x, y), or null if the map has no bounds.
+     */
+    synchronized void setBounds(HeightPyramid chunkBounds) {
+        this.bounds = chunkBounds;
+        this.isValid = false;
+    }
+
+    /**
+     * marks the result as outdated, such that the next update culls again
+     */
+    synchronized void invalidate() {
+        isValid = false;
+    }
+
+    /**
+     * updates the list to the chunks that lie in the frustum of the given matrix, unless the previous result used the
+     * same arguments. The height range of every chunk is extended by the given range. Only the chunks from (xMin, yMin)
+     * up to but excluding (xMax, yMax) are considered; if the chunk bounds are set, these are ignored.
+     * @return true if the list has changed
+     */
+    synchronized boolean update(
+            Matrix4fc viewProjection, float zLow, float zHigh, int xMin, int yMin, int xMax, int yMax
+    ) {
+        if (isValid && view.equals(viewProjection) && zLow == this.zLow && zHigh == this.zHigh &&
+                (bounds != null || (xMin == this.xMin && yMin == this.yMin && xMax == this.xMax && yMax == this.yMax))
+        ) {
+            return false;
+        }
+
+        view.set(viewProjection);
+        frustum.set(view, false);
+        this.zLow = zLow;
+        this.zHigh = zHigh;
+        this.xMin = xMin;
+        this.yMin = yMin;
+        this.xMax = xMax;
+        this.yMax = yMax;
+        nrOfVisible = 0;
+        nrOfCulled = 0;
+
+        if (bounds != null) {
+            cull(bounds.getNrOfLevels() - 1, 0, 0);
+
+        } else {
+            for (int x = xMin; x < xMax; x++) {
+                for (int y = yMin; y < yMax; y++) {
+                    boolean isVisible = frustum.testAab(
+                            x * chunkSize, y * chunkSize, zLow,
+                            (x + 1) * chunkSize, (y + 1) * chunkSize, zHigh
+                    );
+
+                    if (isVisible) {
+                        add(x, y);
+                    } else {
+                        nrOfCulled++;
+                    }
+                }
+            }
+        }
+
+        isValid = true;
+        return true;
+    }
+
+    private void cull(int level, int x, int y) {
+        int xFrom = x << level;
+        int yFrom = y << level;
+        int xTo = Math.min((x + 1) << level, bounds.getXSize(0));
+        int yTo = Math.min((y + 1) << level, bounds.getYSize(0));
+
+        int result = frustum.intersectAab(
+                xFrom * chunkSize, yFrom * chunkSize, Math.min(bounds.getMin(level, x, y), zLow),
+                xTo * chunkSize, yTo * chunkSize, Math.max(bounds.getMax(level, x, y), zHigh)
+        );
+
+        if (result == FrustumIntersection.INSIDE || (result == FrustumIntersection.INTERSECT && level == 0)) {
+            for (int cx = xFrom; cx < xTo; cx++) {
+                for (int cy = yFrom; cy < yTo; cy++) {
+                    add(cx, cy);
+                }
+            }
+
+        } else if (result == FrustumIntersection.INTERSECT) {
+            int below = level - 1;
+            int xEnd = Math.min(2 * x + 2, bounds.getXSize(below));
+            int yEnd = Math.min(2 * y + 2, bounds.getYSize(below));
+
+            for (int cx = 2 * x; cx < xEnd; cx++) {
+                for (int cy = 2 * y; cy < yEnd; cy++) {
+                    cull(below, cx, cy);
+                }
+            }
+
+        } else {
+            nrOfCulled += (xTo - xFrom) * (yTo - yFrom);
+        }
+    }
+
+    private void add(int x, int y) {
+        if (nrOfVisible == xCoords.length) {
+            xCoords = Arrays.copyOf(xCoords, nrOfVisible * 2);
+            yCoords = Arrays.copyOf(yCoords, nrOfVisible * 2);
+        }
+
+        xCoords[nrOfVisible] = x;
+        yCoords[nrOfVisible] = y;
+        nrOfVisible++;
+    }
+
+    /** @return the number of visible chunks */
+    public int size() {
+        return nrOfVisible;
+    }
+
+    /** @return the x chunk coordinate of the i-th visible chunk */
+    public int getX(int i) {
+        return xCoords[i];
+    }
+
+    /** @return the y chunk coordinate of the i-th visible chunk */
+    public int getY(int i) {
+        return yCoords[i];
+    }
+
+    /** @return the number of chunks that were considered but not visible */
+    public int getNrOfCulled() {
+        return nrOfCulled;
+    }
+}
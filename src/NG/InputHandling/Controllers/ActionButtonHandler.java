@@ -55,6 +55,11 @@ public class ActionButtonHandler implements KeyPressListener, GameAspect {
         game.get(MouseToolCallbacks.class).addKeyPressListener(this);
     }
 
+    @Override
+    public Class<?>[] getInitDependencies() {
+        return new Class<?>[]{MouseToolCallbacks.class};
+    }
+
     @Override
     public void cleanup() {
         game.get(MouseToolCallbacks.class).removeListener(this);
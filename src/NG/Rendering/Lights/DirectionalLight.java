@@ -72,6 +72,11 @@ public class DirectionalLight {
         lightSpaceMatrix = recalculateLightSpace();
     }
 
+    /** @return the distance from the light focus to the sides of the volume of the shadow maps */
+    public float getLightSize() {
+        return lightCubeSize;
+    }
+
     public Vector3fc getDirection() {
         return direction;
     }
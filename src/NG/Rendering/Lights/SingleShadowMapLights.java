@@ -5,12 +5,14 @@ import NG.CollisionDetection.GameState;
 import NG.Core.Game;
 import NG.DataStructures.Generic.Color4f;
 import NG.GameMap.GameMap;
+import NG.GameMap.MapChange;
 import NG.Rendering.MatrixStack.SGL;
 import NG.Rendering.Shaders.DepthShader;
 import NG.Rendering.Shaders.LightShader;
 import NG.Rendering.Shaders.ShaderProgram;
 import NG.Storable;
 import NG.Tools.Toolbox;
+import org.joml.FrustumIntersection;
 import org.joml.Vector3f;
 import org.joml.Vector3fc;
 import org.joml.Vector4f;
@@ -25,6 +27,7 @@ import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
+import static NG.Settings.Settings.TILE_SIZE;
 import static org.lwjgl.opengl.GL11.*;
 
 /**
@@ -43,7 +46,7 @@ public class SingleShadowMapLights implements GameLights {
     private DepthShader shadowShader;
 
     private float lightDist = 1;
-    private boolean staticMapIsDirty = false;
+    private boolean staticMapIsDirty = true; // the map may have changed before the listener was added
 
     public SingleShadowMapLights() {
         ReadWriteLock rwl = new ReentrantReadWriteLock(false);
@@ -60,11 +63,37 @@ public class SingleShadowMapLights implements GameLights {
         Future<DepthShader> shader = game.computeOnRenderThread(DepthShader::new);
 
         this.sunLight.init(game);
-        game.get(GameMap.class).addChangeListener(() -> staticMapIsDirty = true);
+        game.get(GameMap.class).addChangeListener(this::onMapChange);
 
         this.shadowShader = shader.get();
     }
 
+    @Override
+    public boolean canInitConcurrently() {
+        // the shaders and shadow maps are created on the render thread
+        return true;
+    }
+
+    /**
+     * marks the static shadow map dirty if the change lies within the volume of the static shadow map
+     */
+    private void onMapChange(MapChange change) {
+        if (change.isEntireMap()) {
+            staticMapIsDirty = true;
+            return;
+        }
+
+        // a margin of a tile covers the extent of the tiles or blocks on the coordinates
+        Vector3fc focus = sunLight.getLightFocus();
+        float lightSize = sunLight.getLightSize();
+        boolean isInShadowMap = new FrustumIntersection(sunLight.getLightSpaceMatrix(), false).testAab(
+                (change.getXMin() - 1) * TILE_SIZE, (change.getYMin() - 1) * TILE_SIZE, focus.z() - 2 * lightSize,
+                (change.getXMax() + 2) * TILE_SIZE, (change.getYMax() + 2) * TILE_SIZE, focus.z() + 2 * lightSize
+        );
+
+        if (isInShadowMap) staticMapIsDirty = true;
+    }
+
     @Override
     public void addPointLight(PointLight light) {
         pointLightEditLock.lock();
@@ -3,6 +3,7 @@ package NG.Rendering;
 import NG.Camera.Camera;
 import NG.Camera.StaticCamera;
 import NG.Core.AbstractGameLoop;
+import NG.Core.FramePipeline;
 import NG.Core.Game;
 import NG.Core.GameAspect;
 import NG.Core.GameTimer;
@@ -30,6 +31,7 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.function.Consumer;
+import java.util.function.Supplier;
 
 import static org.lwjgl.opengl.GL11.*;
 
@@ -46,6 +48,8 @@ public class RenderLoop extends AbstractGameLoop implements GameAspect {
     private SceneShader uiShader;
 
     private TimeObserver timeObserver;
+    private FramePipeline pipeline = null;
+    private Supplier<String> pipelineCounter = null;
 
     /**
      * creates a new, paused gameloop
@@ -65,6 +69,12 @@ public class RenderLoop extends AbstractGameLoop implements GameAspect {
         this.game = game;
         Settings settings = game.get(Settings.class);
 
+        if (game.has(FramePipeline.class)) {
+            pipeline = game.get(FramePipeline.class);
+            pipelineCounter = pipeline::toString;
+            Logger.printOnline(pipelineCounter);
+        }
+
         overlay.init(settings.ANTIALIAS_LEVEL);
         overlay.addHudItem((hud) -> {
             if (settings.DEBUG_SCREEN) {
@@ -145,6 +155,7 @@ public class RenderLoop extends AbstractGameLoop implements GameAspect {
         // current time
         GameTimer gameTimer = game.get(GameTimer.class);
         gameTimer.updateRenderTime();
+        if (pipeline != null) pipeline.beginFrame();
 
         // camera
         game.get(Camera.class).updatePosition(deltaTime, gameTimer.getRendertime()); // real-time deltatime
@@ -175,6 +186,7 @@ public class RenderLoop extends AbstractGameLoop implements GameAspect {
 
         // update window
         window.update();
+        if (pipeline != null) pipeline.endFrame();
 
         // loop clean
         Toolbox.checkGLError();
@@ -191,6 +203,7 @@ public class RenderLoop extends AbstractGameLoop implements GameAspect {
     public void cleanup() {
         uiShader.cleanup();
         overlay.cleanup();
+        if (pipelineCounter != null) Logger.removeOnlinePrint(pipelineCounter);
     }
 
     private void dumpTexture(Texture texture, String fileName) {
@@ -236,6 +236,41 @@ public class OpenSimplexNoise {
         return value / NORM_CONSTANT_2D;
     }
 
+    /**
+     * adds a row of 2D noise to the given array: for each i in [0, count), adds {@code amplitude * eval(xCoord * density,
+     * (yFrom + i) * density)} to {@code dest[offset + i]}. The noise is evaluated in double precision, such that the
+     * result is identical to adding the results of separate calls to {@link #eval(double, double)}.
+     * @param dest      the array to add the noise to
+     * @param offset    the first index of dest to write
+     * @param count     the number of samples
+     * @param xCoord    the x coordinate of the row, before scaling
+     * @param yFrom     the y coordinate of the first sample, before scaling
+     * @param density   the scale of the coordinates
+     * @param amplitude the scale of the noise
+     */
+    public void addRow(float[] dest, int offset, int count, int xCoord, int yFrom, double density, double amplitude) {
+        double x = xCoord * density;
+
+        for (int i = 0; i < count; i++) {
+            dest[offset + i] += (float) (amplitude * eval(x, (yFrom + i) * density));
+        }
+    }
+
+    /**
+     * adds a region of 2D noise to the given array, as {@link #addRow(float[], int, int, int, int, double, double)}
+     * for every row: adds {@code amplitude * eval((xFrom + i) * density, (yFrom + j) * density)} to {@code dest[i][j]}
+     * @param dest      the array to add the noise to. Rows may have different lengths.
+     * @param xFrom     the x coordinate of the first row, before scaling
+     * @param yFrom     the y coordinate of the first sample of every row, before scaling
+     * @param density   the scale of the coordinates
+     * @param amplitude the scale of the noise
+     */
+    public void addRegion(float[][] dest, int xFrom, int yFrom, double density, double amplitude) {
+        for (int i = 0; i < dest.length; i++) {
+            addRow(dest[i], 0, dest[i].length, xFrom + i, yFrom, density, amplitude);
+        }
+    }
+
     //3D OpenSimplex Noise.
     public double eval(double x, double y, double z) {
 